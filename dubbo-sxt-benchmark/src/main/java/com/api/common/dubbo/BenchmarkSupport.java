@@ -0,0 +1,129 @@
+package com.api.common.dubbo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+
+/**
+ * benchmark公用的桩数据: 接口名、通知文件、路由表, 不需要注册中心和网络
+ *
+ * @author sxt
+ */
+public class BenchmarkSupport {
+
+	public static final String INTERFACE_PREFIX = "com.api.benchmark.Service";
+
+	public static final int LOCAL_PORT = 20880;
+
+	private BenchmarkSupport() {
+	}
+
+	public interface EchoService {
+
+		String echo(String message);
+
+	}
+
+	/**
+	 * 需要是public的, jdk代理反射调用
+	 */
+	public static class EchoServiceImpl implements EchoService {
+
+		@Override
+		public String echo(String message) {
+			return message;
+		}
+
+	}
+
+	/**
+	 * 通知目录改到临时目录, 避免读到本机~/barrier下的真实文件
+	 */
+	public static File useTempNotifyDir() throws IOException {
+		File dir = Files.createTempDirectory("dubbo-sxt-benchmark").toFile();
+		dir.deleteOnExit();
+		DubboClientLocalListener.notifyFilePath = dir.getAbsolutePath() + File.separator;
+		return dir;
+	}
+
+	public static String interfaceName(int index) {
+		return INTERFACE_PREFIX + index;
+	}
+
+	/**
+	 * consumer端的url, 不打印本地路由日志
+	 */
+	public static URL consumerUrl(String interfaceName, String cluster) {
+		return URL.valueOf("consumer://127.0.0.1/" + interfaceName + "?interface=" + interfaceName //
+				+ "&cluster=" + cluster + "&retries=0&check=false&local.trace=false");
+	}
+
+	public static RpcInvocation invocation() {
+		return new RpcInvocation("echo", new Class<?>[] { String.class }, new Object[] { "hello" });
+	}
+
+	public static List<Invoker<EchoService>> remoteInvokers(String interfaceName, int count) {
+		List<Invoker<EchoService>> invokers = new ArrayList<Invoker<EchoService>>(count);
+		for(int i = 0; i < count; i++) {
+			URL url = URL.valueOf("dubbo://10.0.0." + (i + 1) + ":20880/" + interfaceName + "?interface=" + interfaceName);
+			invokers.add(new StubInvoker<EchoService>(EchoService.class, url));
+		}
+		return invokers;
+	}
+
+	/**
+	 * 每个接口一个已经"连接好"的本地路由, 给consumerUrl(interfaceName, cluster)的reference用
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static LocalRoutingTable routingTable(int interfaces, String cluster) {
+		Map<String, List<LocalEndpoint>> endpoints = new HashMap<String, List<LocalEndpoint>>();
+		List<String> referKeys = new ArrayList<String>(interfaces);
+		Map<String, LocalRoute> routes = new HashMap<String, LocalRoute>();
+		for(int i = 0; i < interfaces; i++) {
+			String interfaceName = interfaceName(i);
+			String referKey = LocalInvokerManager.referKey(interfaceName, consumerUrl(interfaceName, cluster));
+			LocalEndpoint endpoint = LocalEndpoint.parse(interfaceName + "$" + LOCAL_PORT, "benchmark.properties", 1L);
+			URL url = URL.valueOf("dubbo://127.0.0.1:" + LOCAL_PORT + "/" + interfaceName + "?interface=" + interfaceName);
+			Invoker invoker = new StubInvoker<EchoService>(EchoService.class, url);
+			LocalCircuitBreaker breaker = new LocalCircuitBreaker(endpoint.getLocalKey(), "127.0.0.1", LOCAL_PORT, url);
+			endpoints.put(endpoint.getInterfaceKey(), Collections.singletonList(endpoint));
+			referKeys.add(referKey);
+			routes.put(LocalInvokerManager.routeKey(endpoint.getLocalKey(), referKey), new LocalRoute(endpoint, invoker, breaker));
+		}
+		return LocalRoutingTable.build(endpoints, referKeys, routes);
+	}
+
+	/**
+	 * 写N个通知文件, 每个文件M个接口, 端口按文件区分
+	 */
+	public static File[] writeNotifyFiles(File dir, int files, int interfaces) throws IOException {
+		File[] result = new File[files];
+		for(int f = 0; f < files; f++) {
+			Properties prop = new Properties();
+			for(int i = 0; i < interfaces; i++) {
+				prop.put(interfaceName(i) + "$" + (LOCAL_PORT + f), "bean" + i);
+			}
+			result[f] = new File(dir, "app" + f + "-" + f + ".properties");
+			OutputStream out = new FileOutputStream(result[f]);
+			try {
+				prop.store(out, "");
+			} finally {
+				out.close();
+			}
+		}
+		return result;
+	}
+
+}
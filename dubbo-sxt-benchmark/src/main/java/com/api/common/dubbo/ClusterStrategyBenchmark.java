@@ -0,0 +1,70 @@
+package com.api.common.dubbo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+
+/**
+ * 各个cluster策略经过InterceptInvoker调用的开销(本地命中/只有远程)
+ *
+ * @author sxt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterStrategyBenchmark {
+
+	@Param({ "failover", "failfast", "failback", "failsafe", "available", "forking" })
+	public String strategy;
+
+	private Invoker<BenchmarkSupport.EchoService> local;
+
+	private Invoker<BenchmarkSupport.EchoService> remote;
+
+	private RpcInvocation invocation;
+
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkSupport.useTempNotifyDir();
+		LocalCluster cluster = new LocalCluster();
+		cluster.setRoutingTable(BenchmarkSupport.routingTable(1, "intercept-" + strategy));
+		this.local = this.join(cluster, BenchmarkSupport.interfaceName(0));
+		this.remote = this.join(cluster, BenchmarkSupport.interfaceName(1));
+		this.invocation = BenchmarkSupport.invocation();
+	}
+
+	private Invoker<BenchmarkSupport.EchoService> join(LocalCluster cluster, String interfaceName) {
+		URL url = BenchmarkSupport.consumerUrl(interfaceName, "intercept-" + strategy);
+		return cluster.join(new StubDirectory<BenchmarkSupport.EchoService>(BenchmarkSupport.EchoService.class, url, //
+				BenchmarkSupport.remoteInvokers(interfaceName, 3)));
+	}
+
+	@Benchmark
+	public Result local() {
+		return local.invoke(invocation);
+	}
+
+	@Benchmark
+	public Result remote() {
+		return remote.invoke(invocation);
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.api.common.dubbo;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.dubbo.common.Constants;
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.extension.ExtensionLoader;
+import com.alibaba.dubbo.rpc.Exporter;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Protocol;
+import com.alibaba.dubbo.rpc.ProxyFactory;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+import com.alibaba.dubbo.rpc.cluster.Cluster;
+import com.alibaba.dubbo.rpc.cluster.support.FailfastCluster;
+import com.alibaba.dubbo.rpc.cluster.support.FailoverCluster;
+
+/**
+ * 端到端: 同一个进程中的provider和consumer, 经过真实的dubbo协议(127.0.0.1)调用
+ * <p>
+ * 没有注册中心, consumer的Directory固定为provider的地址. 对比:
+ * <pre>
+ * cluster=failover/failfast                         dubbo自带的cluster, 不经过LocalCluster
+ * cluster=intercept-failover/intercept-failfast     LocalCluster, route=remote时没有本地路由, 看拦截本身的开销
+ * route=local                                       本地路由指向同进程的injvm导出, 看本地短路省下的时间(只对intercept-*有效)
+ * </pre>
+ * 吞吐量和耗时分位数(p50/p99/p999)分别由Throughput和SampleTime模式给出, 分配速率用-prof gc, 结果用-rf json保存:
+ * <pre>
+ * java -jar benchmarks.jar EndToEndBenchmark -t 8 -prof gc -rf json -rff e2e.json
+ * </pre>
+ *
+ * @author sxt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+	private static final int PORT = 20992;
+
+	@Param({ "failover", "failfast", "intercept-failover", "intercept-failfast" })
+	public String cluster;
+
+	@Param({ "remote", "local" })
+	public String route;
+
+	// 请求和响应的字符数
+	@Param({ "16", "1024", "16384" })
+	public int payload;
+
+	private Exporter<BenchmarkSupport.EchoService> exporter;
+
+	private Exporter<BenchmarkSupport.EchoService> inJvmExporter;
+
+	private Invoker<BenchmarkSupport.EchoService> remote;
+
+	private Invoker<BenchmarkSupport.EchoService> inJvm;
+
+	private Invoker<BenchmarkSupport.EchoService> invoker;
+
+	private RpcInvocation invocation;
+
+	@Setup
+	public void setup() throws Exception {
+		Logger.getRootLogger().setLevel(Level.WARN);
+		BenchmarkSupport.useTempNotifyDir();
+		Class<BenchmarkSupport.EchoService> type = BenchmarkSupport.EchoService.class;
+		String interfaceName = type.getName();
+		ProxyFactory proxyFactory = ExtensionLoader.getExtensionLoader(ProxyFactory.class).getExtension("jdk");
+		BenchmarkSupport.EchoServiceImpl service = new BenchmarkSupport.EchoServiceImpl();
+		// provider
+		URL url = URL.valueOf("dubbo://127.0.0.1:" + PORT + "/" + interfaceName + "?interface=" + interfaceName + "&timeout=3000");
+		Protocol protocol = ExtensionLoader.getExtensionLoader(Protocol.class).getExtension("dubbo");
+		this.exporter = protocol.export(proxyFactory.getInvoker(service, type, url));
+		// consumer, 远程地址就是上面的provider
+		this.remote = protocol.refer(type, url);
+		URL consumerUrl = BenchmarkSupport.consumerUrl(interfaceName, cluster);
+		StubDirectory<BenchmarkSupport.EchoService> directory = new StubDirectory<BenchmarkSupport.EchoService>(type, consumerUrl, //
+				Collections.singletonList(remote));
+		if(cluster.startsWith("intercept")) {
+			LocalCluster localCluster = new LocalCluster();
+			if("local".equals(route)) {
+				localCluster.setRoutingTable(this.inJvmRoutingTable(type, service, proxyFactory, consumerUrl));
+			}
+			this.invoker = localCluster.join(directory);
+		}
+		else {
+			Cluster plain = "failfast".equals(cluster)? new FailfastCluster(): new FailoverCluster();
+			this.invoker = plain.join(directory);
+		}
+		this.invocation = new RpcInvocation("echo", new Class<?>[] { String.class }, new Object[] { StringUtils.repeat("x", payload) });
+	}
+
+	/**
+	 * 同进程injvm导出, 和LocalInvokerManager连接好的本地路由一样包一层LocalBreakerInvoker
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private LocalRoutingTable inJvmRoutingTable(Class<BenchmarkSupport.EchoService> type, BenchmarkSupport.EchoService service, ProxyFactory proxyFactory, URL consumerUrl) {
+		String interfaceName = type.getName();
+		URL url = URL.valueOf(Constants.LOCAL_PROTOCOL + "://127.0.0.1/" + interfaceName + "?interface=" + interfaceName);
+		Protocol protocol = ExtensionLoader.getExtensionLoader(Protocol.class).getExtension(Constants.LOCAL_PROTOCOL);
+		this.inJvmExporter = protocol.export(proxyFactory.getInvoker(service, type, url));
+		this.inJvm = protocol.refer(type, url);
+		LocalEndpoint endpoint = LocalEndpoint.inJvm(interfaceName + "$" + PORT);
+		LocalCircuitBreaker breaker = new LocalCircuitBreaker(endpoint.getLocalKey(), "127.0.0.1", PORT, url);
+		LocalLoadStats load = new LocalLoadStats();
+		Invoker routed = new LocalBreakerInvoker<BenchmarkSupport.EchoService>(inJvm, breaker, load);
+		LocalRoute localRoute = new LocalRoute(endpoint, routed, breaker, load);
+		String referKey = LocalInvokerManager.referKey(interfaceName, consumerUrl);
+		return LocalRoutingTable.build(Collections.singletonMap(endpoint.getInterfaceKey(), Collections.singletonList(endpoint)), //
+				Collections.singleton(referKey), Collections.singletonMap(LocalInvokerManager.routeKey(endpoint.getLocalKey(), referKey), localRoute));
+	}
+
+	@TearDown
+	public void tearDown() {
+		invoker.destroy();
+		remote.destroy();
+		exporter.unexport();
+		if(inJvm != null) {
+			inJvm.destroy();
+			inJvmExporter.unexport();
+		}
+	}
+
+	@Benchmark
+	public Object echo() throws Throwable {
+		return invoker.invoke(invocation).recreate();
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.api.common.dubbo;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 注册表加载N个通知文件 x M个接口的耗时: 全量对账(文件没有变化)和单个文件变化后的重新加载.
+ * 不启动监听线程, 没有reference订阅, 不会去连接本地provider
+ *
+ * @author sxt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryScanBenchmark {
+
+	@Param({ "1", "10", "50" })
+	public int files;
+
+	@Param({ "10", "100" })
+	public int interfaces;
+
+	private LocalProviderRegistry registry;
+
+	private File[] notifyFiles;
+
+	@Setup
+	public void setup() throws Exception {
+		File dir = BenchmarkSupport.useTempNotifyDir();
+		this.notifyFiles = BenchmarkSupport.writeNotifyFiles(dir, files, interfaces);
+		this.registry = LocalProviderRegistry.getInstance();
+		registry.sannerLocal(notifyFiles);
+	}
+
+	@Benchmark
+	public void sannerLocal() {
+		registry.sannerLocal(notifyFiles);
+	}
+
+	@Benchmark
+	public void loadLocal(ChangedFile changed) {
+		registry.loadLocal(changed.file);
+	}
+
+	/**
+	 * 每次都让第一个文件的修改时间变化, loadLocal()才会重新解析
+	 */
+	@State(Scope.Benchmark)
+	public static class ChangedFile {
+
+		File file;
+
+		long modified;
+
+		@Setup(Level.Invocation)
+		public void touch(RegistryScanBenchmark scan) {
+			if(file == null) {
+				this.file = scan.notifyFiles[0];
+				this.modified = file.lastModified();
+			}
+			this.modified += 1000;
+			file.setLastModified(modified);
+		}
+
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.api.common.dubbo;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+import com.alibaba.dubbo.rpc.cluster.support.FailoverClusterInvoker;
+
+/**
+ * InterceptInvoker.list()/invoke()的开销: 路由表中有M个接口, 分别测本地命中、没有本地地址、
+ * 以及不经过拦截的FailoverClusterInvoker作为基准
+ *
+ * @author sxt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int interfaces;
+
+	private LocalCluster.InterceptInvoker<BenchmarkSupport.EchoService> localHit;
+
+	private LocalCluster.InterceptInvoker<BenchmarkSupport.EchoService> localMiss;
+
+	private Invoker<BenchmarkSupport.EchoService> direct;
+
+	private RpcInvocation invocation;
+
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkSupport.useTempNotifyDir();
+		LocalCluster cluster = new LocalCluster();
+		cluster.setRoutingTable(BenchmarkSupport.routingTable(interfaces, "intercept-failover"));
+		this.localHit = this.join(cluster, BenchmarkSupport.interfaceName(interfaces / 2));
+		// 不在路由表中的接口
+		this.localMiss = this.join(cluster, BenchmarkSupport.interfaceName(interfaces));
+		String interfaceName = BenchmarkSupport.interfaceName(interfaces);
+		URL url = BenchmarkSupport.consumerUrl(interfaceName, "failover");
+		this.direct = new FailoverClusterInvoker<BenchmarkSupport.EchoService>(new StubDirectory<BenchmarkSupport.EchoService>( //
+				BenchmarkSupport.EchoService.class, url, BenchmarkSupport.remoteInvokers(interfaceName, 3)));
+		this.invocation = BenchmarkSupport.invocation();
+	}
+
+	@SuppressWarnings("unchecked")
+	private LocalCluster.InterceptInvoker<BenchmarkSupport.EchoService> join(LocalCluster cluster, String interfaceName) {
+		URL url = BenchmarkSupport.consumerUrl(interfaceName, "intercept-failover");
+		return (LocalCluster.InterceptInvoker<BenchmarkSupport.EchoService>) cluster.join( //
+				new StubDirectory<BenchmarkSupport.EchoService>(BenchmarkSupport.EchoService.class, url, //
+						BenchmarkSupport.remoteInvokers(interfaceName, 3)));
+	}
+
+	@Benchmark
+	public List<Invoker<BenchmarkSupport.EchoService>> listLocalHit() {
+		return localHit.list(invocation);
+	}
+
+	@Benchmark
+	public List<Invoker<BenchmarkSupport.EchoService>> listLocalMiss() {
+		return localMiss.list(invocation);
+	}
+
+	@Benchmark
+	public Result invokeLocalHit() {
+		return localHit.invoke(invocation);
+	}
+
+	@Benchmark
+	public Result invokeLocalMiss() {
+		return localMiss.invoke(invocation);
+	}
+
+	@Benchmark
+	public Result invokeWithoutIntercept() {
+		return direct.invoke(invocation);
+	}
+
+}
@@ -0,0 +1,107 @@
+package com.api.common.dubbo;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.extension.ExtensionLoader;
+import com.alibaba.dubbo.rpc.Exporter;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Protocol;
+import com.alibaba.dubbo.rpc.ProxyFactory;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+
+/**
+ * 本机echo往返: 共享内存通道 vs dubbo协议走127.0.0.1
+ * <p>
+ * 默认provider在同一个进程中; external=true时连接SharedMemoryEchoProvider(只支持shm)
+ *
+ * @author sxt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SharedMemoryBenchmark {
+
+	private static final int DUBBO_PORT = 20991;
+
+	@Param({ "shm", "dubbo" })
+	public String transport;
+
+	@Param({ "false" })
+	public boolean external;
+
+	private Invoker<BenchmarkSupport.EchoService> invoker;
+
+	private Exporter<BenchmarkSupport.EchoService> exporter;
+
+	private RpcInvocation invocation;
+
+	// 本进程启动的共享内存通道, external时为null
+	private SharedMemoryServer server;
+
+	@Setup
+	public void setup() throws Exception {
+		Logger.getRootLogger().setLevel(Level.WARN);
+		String interfaceName = BenchmarkSupport.EchoService.class.getName();
+		this.invocation = BenchmarkSupport.invocation();
+		if("shm".equals(transport)) {
+			String dir = DubboClientLocalListener.notifyFilePath;
+			if(!external) {
+				dir = BenchmarkSupport.useTempNotifyDir().getAbsolutePath() + File.separator;
+				this.server = SharedMemoryServer.start(dir, SharedMemoryEchoProvider.PORT, 1 << 20, 4);
+				SharedMemoryEchoProvider.export(server, SharedMemoryEchoProvider.PORT);
+			}
+			URL url = URL.valueOf("shm://127.0.0.1:" + SharedMemoryEchoProvider.PORT + "/" + interfaceName + "?timeout=3000");
+			this.invoker = SharedMemoryInvoker.open(BenchmarkSupport.EchoService.class, url, dir, SharedMemoryEchoProvider.PORT);
+			if(invoker == null) {
+				throw new IllegalStateException("共享内存通道不可用: " + SharedMemoryChannel.file(dir, SharedMemoryEchoProvider.PORT));
+			}
+			return ;
+		}
+		if(external) {
+			throw new IllegalStateException("external只支持shm");
+		}
+		URL url = URL.valueOf("dubbo://127.0.0.1:" + DUBBO_PORT + "/" + interfaceName + "?timeout=3000");
+		Protocol protocol = ExtensionLoader.getExtensionLoader(Protocol.class).getExtension("dubbo");
+		ProxyFactory proxyFactory = ExtensionLoader.getExtensionLoader(ProxyFactory.class).getExtension("jdk");
+		this.exporter = protocol.export(proxyFactory.getInvoker(new BenchmarkSupport.EchoServiceImpl(), BenchmarkSupport.EchoService.class, url));
+		this.invoker = protocol.refer(BenchmarkSupport.EchoService.class, url);
+	}
+
+	@TearDown
+	public void tearDown() {
+		invoker.destroy();
+		if(exporter != null) {
+			exporter.unexport();
+		}
+		if(server != null) {
+			SharedMemoryServer.release(server);
+			this.server = null;
+		}
+	}
+
+	@Benchmark
+	public Object echo() throws Throwable {
+		return invoker.invoke(invocation).recreate();
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.api.common.dubbo;
+
+import java.io.File;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.extension.ExtensionLoader;
+import com.alibaba.dubbo.rpc.ProxyFactory;
+
+/**
+ * 只提供共享内存通道的echo provider, 不需要注册中心, 在另一个进程里测试共享内存传输:
+ * <pre>
+ * java -cp benchmarks.jar com.api.common.dubbo.SharedMemoryEchoProvider [通知目录] [端口]
+ * java -jar benchmarks.jar SharedMemoryBenchmark -p external=true
+ * </pre>
+ *
+ * @author sxt
+ */
+public class SharedMemoryEchoProvider {
+
+	public static final int PORT = 20990;
+
+	public static void main(String[] args) throws Exception {
+		String dir = args.length > 0? args[0]: DubboClientLocalListener.notifyFilePath;
+		int port = args.length > 1? Integer.parseInt(args[1]): PORT;
+		new File(dir).mkdirs();
+		final SharedMemoryServer server = SharedMemoryServer.start(dir, port, 1 << 20, 4);
+		export(server, port);
+		System.out.println("共享内存echo provider启动: " + SharedMemoryChannel.file(dir, port).getPath());
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+
+			@Override
+			public void run() {
+				SharedMemoryServer.release(server);
+			}
+		});
+		Thread.currentThread().join();
+	}
+
+	static void export(SharedMemoryServer server, int port) {
+		String interfaceName = BenchmarkSupport.EchoService.class.getName();
+		URL url = URL.valueOf("shm://127.0.0.1:" + port + "/" + interfaceName);
+		// javassist不支持新版本jdk的class文件, 用jdk代理
+		ProxyFactory proxyFactory = ExtensionLoader.getExtensionLoader(ProxyFactory.class).getExtension("jdk");
+		server.export(SharedMemoryChannel.serviceKey(interfaceName, null, null), //
+				proxyFactory.getInvoker(new BenchmarkSupport.EchoServiceImpl(), BenchmarkSupport.EchoService.class, url));
+	}
+
+}
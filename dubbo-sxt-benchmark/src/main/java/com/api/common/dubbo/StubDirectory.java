@@ -0,0 +1,54 @@
+package com.api.common.dubbo;
+
+import java.util.List;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Invocation;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.RpcException;
+import com.alibaba.dubbo.rpc.cluster.Directory;
+
+/**
+ * 固定远程地址的Directory, 不需要注册中心
+ *
+ * @author sxt
+ */
+public class StubDirectory<T> implements Directory<T> {
+
+	private final Class<T> type;
+
+	private final URL url;
+
+	private final List<Invoker<T>> invokers;
+
+	public StubDirectory(Class<T> type, URL url, List<Invoker<T>> invokers) {
+		this.type = type;
+		this.url = url;
+		this.invokers = invokers;
+	}
+
+	@Override
+	public Class<T> getInterface() {
+		return type;
+	}
+
+	@Override
+	public List<Invoker<T>> list(Invocation invocation) throws RpcException {
+		return invokers;
+	}
+
+	@Override
+	public URL getUrl() {
+		return url;
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return true;
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+}
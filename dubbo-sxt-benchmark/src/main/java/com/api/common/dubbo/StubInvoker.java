@@ -0,0 +1,52 @@
+package com.api.common.dubbo;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Invocation;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcException;
+import com.alibaba.dubbo.rpc.RpcResult;
+
+/**
+ * 直接返回结果的Invoker, 不走网络
+ *
+ * @author sxt
+ */
+public class StubInvoker<T> implements Invoker<T> {
+
+	private final Class<T> type;
+
+	private final URL url;
+
+	private final Result result = new RpcResult("ok");
+
+	public StubInvoker(Class<T> type, URL url) {
+		this.type = type;
+		this.url = url;
+	}
+
+	@Override
+	public Class<T> getInterface() {
+		return type;
+	}
+
+	@Override
+	public Result invoke(Invocation invocation) throws RpcException {
+		return result;
+	}
+
+	@Override
+	public URL getUrl() {
+		return url;
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return true;
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.api.common.dubbo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.varia.NullAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.dubbo.rpc.RpcInvocation;
+
+/**
+ * 调用线程上记录本地路由日志和统计的开销, 配合-prof gc确认没有分配对象
+ *
+ * @author sxt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TracerBenchmark {
+
+	@Param({ "0", "0.01", "1" })
+	public double sampleRate;
+
+	private LocalRequestTracer tracer;
+
+	private LocalRoutingMetrics.ServiceMetrics metrics;
+
+	private RpcInvocation invocation;
+
+	@Setup
+	public void setup() {
+		// 后台线程打印到NullAppender, 只测调用线程
+		Logger.getRootLogger().removeAllAppenders();
+		Logger.getRootLogger().addAppender(new NullAppender());
+		this.tracer = LocalRequestTracer.getInstance();
+		this.tracer.start();
+		this.metrics = LocalRoutingMetrics.getInstance().service(BenchmarkSupport.interfaceName(0));
+		this.invocation = BenchmarkSupport.invocation();
+	}
+
+	@TearDown
+	public void tearDown() {
+		tracer.stop();
+	}
+
+	@Benchmark
+	public void trace() {
+		tracer.trace(sampleRate, BenchmarkSupport.EchoService.class, invocation, BenchmarkSupport.LOCAL_PORT);
+	}
+
+	@Benchmark
+	public void recordMetrics() {
+		metrics.method(invocation.getMethodName()).recordLocal(1234567);
+	}
+
+}
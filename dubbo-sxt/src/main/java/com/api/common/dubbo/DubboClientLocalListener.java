@@ -14,8 +14,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ApplicationContextEvent;
+import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.context.event.ContextStartedEvent;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.support.PropertiesLoaderUtils;
@@ -23,14 +26,13 @@ import org.springframework.core.io.support.PropertiesLoaderUtils;
 import com.alibaba.dubbo.common.extension.ExtensionLoader;
 import com.alibaba.dubbo.config.spring.ReferenceBean;
 import com.alibaba.dubbo.rpc.cluster.Cluster;
-import com.api.common.util.NetUtils;
 
 /**
  * 监听本地是否启动provider
  * 
  * @author sxt
  */
-public class DubboClientLocalListener implements BeanPostProcessor, ApplicationListener<ApplicationContextEvent>, InitializingBean {
+public class DubboClientLocalListener implements BeanPostProcessor, ApplicationListener<ApplicationContextEvent>, InitializingBean, ApplicationContextAware {
 	
 	private Logger logger = LoggerFactory.getLogger(DubboClientLocalListener.class);
 	
@@ -44,9 +46,48 @@ public class DubboClientLocalListener implements BeanPostProcessor, ApplicationL
 	
 	private boolean isOnlie = false;
 	
-	List<String> LOCAL_HOSTS = NetUtils.localAddresses();
+	List<String> LOCAL_HOSTS = LocalHostUtils.localAddresses();
+	
+	private ApplicationContext applicationContext;
+	
+	public static final String REGISTRY_FORMAT_PROPERTIES = "properties";
+	
+	public static final String REGISTRY_FORMAT_MAPPED = "mapped";
 	
 	public static String notifyFilePath = System.getProperty("user.home") + File.separator + "barrier" + File.separator;
+	
+	// properties: 每个应用一个通知文件; mapped: 共用一个内存映射注册文件
+	public static String registryFormat = REGISTRY_FORMAT_PROPERTIES;
+	
+	// registryFormat=mapped时轮询sequence的间隔(毫秒)
+	public static long mappedPollInterval = 10;
+	
+	// 后台连接本地provider的超时时间(毫秒)
+	public static int connectTimeout = 1000;
+	
+	// 先用127.0.0.1连接本地provider, 连不上再用本机IP
+	public static boolean preferLoopback = true;
+	
+	// 本地Invoker空闲多久后销毁(毫秒), <=0不回收
+	public static long invokerIdleTimeout = 10 * 60 * 1000;
+	
+	// 本地Invoker最大数量, 超过时销毁最久未使用的
+	public static int maxInvokers = 64;
+	
+	// 本地路由日志默认采样率(0~1), reference可以用local.trace.sample覆盖
+	public static double traceSampleRate = 1;
+	
+	// 本地路由日志中每个参数最多打印的字符数
+	public static int traceArgLength = 256;
+	
+	// 本地路由日志缓冲区大小, 打印不过来时丢弃
+	public static int traceBufferSize = 4096;
+	
+	// reference有本地provider时, 创建时最多等待本地连接就绪的时间(毫秒), reference可以用local.ready.timeout覆盖; 0不等待
+	public static long readyTimeout = 3000;
+	
+	// provider本地通知的租约时长(毫秒), 超过这个时间没有续约就删除本地路由; <=0不检查
+	public static long leaseTimeout = 5000;
 	{
 		File file = new File(notifyFilePath);
 		if(!file.exists()) {
@@ -108,12 +149,109 @@ public class DubboClientLocalListener implements BeanPostProcessor, ApplicationL
 		DubboClientLocalListener.notifyFilePath = notifyFilePath;
 	}
 
+	public String getRegistryFormat() {
+		return registryFormat;
+	}
+
+	public void setRegistryFormat(String registryFormat) {
+		DubboClientLocalListener.registryFormat = registryFormat;
+	}
+
+	public long getMappedPollInterval() {
+		return mappedPollInterval;
+	}
+
+	public void setMappedPollInterval(long mappedPollInterval) {
+		DubboClientLocalListener.mappedPollInterval = mappedPollInterval;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		DubboClientLocalListener.connectTimeout = connectTimeout;
+	}
+
+	public boolean isPreferLoopback() {
+		return preferLoopback;
+	}
+
+	public void setPreferLoopback(boolean preferLoopback) {
+		DubboClientLocalListener.preferLoopback = preferLoopback;
+	}
+
+	public long getInvokerIdleTimeout() {
+		return invokerIdleTimeout;
+	}
+
+	public void setInvokerIdleTimeout(long invokerIdleTimeout) {
+		DubboClientLocalListener.invokerIdleTimeout = invokerIdleTimeout;
+	}
+
+	public int getMaxInvokers() {
+		return maxInvokers;
+	}
+
+	public void setMaxInvokers(int maxInvokers) {
+		DubboClientLocalListener.maxInvokers = maxInvokers;
+	}
+
+	public double getTraceSampleRate() {
+		return traceSampleRate;
+	}
+
+	public void setTraceSampleRate(double traceSampleRate) {
+		DubboClientLocalListener.traceSampleRate = traceSampleRate;
+	}
+
+	public int getTraceArgLength() {
+		return traceArgLength;
+	}
+
+	public void setTraceArgLength(int traceArgLength) {
+		DubboClientLocalListener.traceArgLength = traceArgLength;
+	}
+
+	public int getTraceBufferSize() {
+		return traceBufferSize;
+	}
+
+	public void setTraceBufferSize(int traceBufferSize) {
+		DubboClientLocalListener.traceBufferSize = traceBufferSize;
+	}
+
+	public long getReadyTimeout() {
+		return readyTimeout;
+	}
+
+	public void setReadyTimeout(long readyTimeout) {
+		DubboClientLocalListener.readyTimeout = readyTimeout;
+	}
+
+	public long getLeaseTimeout() {
+		return leaseTimeout;
+	}
+
+	public void setLeaseTimeout(long leaseTimeout) {
+		DubboClientLocalListener.leaseTimeout = leaseTimeout;
+	}
+
 	@Override
 	public void onApplicationEvent(ApplicationContextEvent event) {
 		if(event instanceof ContextStartedEvent) {
 			// help gc
 			this.clusters = null;
 		}
+		// 子容器的事件也会传播过来, 只处理自己所在的容器
+		if(event instanceof ContextClosedEvent && event.getApplicationContext() == this.applicationContext) {
+			LocalProviderRegistry.getInstance().stop();
+		}
+	}
+	
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+		this.applicationContext = applicationContext;
 	}
 	
 	@Override
@@ -126,11 +264,8 @@ public class DubboClientLocalListener implements BeanPostProcessor, ApplicationL
 		this.logger.info(System.lineSeparator() + this.toString() //
 								+ System.lineSeparator() + ">>>>> >>>>> " + (this.isExcludeHost()? "本机不做本地服务监听": "本机做本地服务监听"));
 		if(!this.isExcludeHost()) {
-			try {
-				Thread.sleep(3000);
-			} catch (Exception e) {
-				// ignore
-			}
+			// 启动时同步加载已有的通知, reference创建时按需等待本地连接就绪
+			LocalProviderRegistry.getInstance().start();
 		}
 	}
 	
@@ -166,7 +301,8 @@ public class DubboClientLocalListener implements BeanPostProcessor, ApplicationL
 		}
 		builer.append(System.lineSeparator());
 		builer.append("正则过滤IP表达式: " + this.excludeHostPattern).append(System.lineSeparator())
-			  .append("本地服务通知目录: " + DubboClientLocalListener.notifyFilePath);
+			  .append("本地服务通知目录: " + DubboClientLocalListener.notifyFilePath).append(System.lineSeparator())
+			  .append("通知格式: " + DubboClientLocalListener.registryFormat);
 		return builer.toString();
 	}
 	
@@ -1,12 +1,9 @@
 package com.api.common.dubbo;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.lang.StringUtils;
@@ -16,25 +13,23 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ApplicationContextEvent;
-import org.springframework.context.event.ContextStartedEvent;
+import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.support.PropertiesLoaderUtils;
 
-import com.alibaba.dubbo.config.ApplicationConfig;
-import com.alibaba.dubbo.config.ProtocolConfig;
 import com.alibaba.dubbo.config.RegistryConfig;
-import com.alibaba.dubbo.config.spring.ServiceBean;
-import com.api.common.util.IdGen;
-import com.api.common.util.NetUtils;
 
 /**
  * dubbo服务注册拦截, 方便本地调试
+ * <p>
+ * 本机不做服务注册时, 每个服务导出完成后发布本地通知(LocalNotifyPublisher), 容器关闭时删除
  * 
  * @author sxt
  */
-public class DubboProviderRegisteBarrier implements BeanPostProcessor, ApplicationListener<ApplicationContextEvent>, InitializingBean {
+public class DubboProviderRegisteBarrier implements BeanPostProcessor, ApplicationListener<ApplicationContextEvent>, InitializingBean, ApplicationContextAware {
 	
 	private Logger logger = LoggerFactory.getLogger(DubboProviderRegisteBarrier.class);
 
@@ -42,10 +37,28 @@ public class DubboProviderRegisteBarrier implements BeanPostProcessor, Applicati
 	
 	private String registerHostPattern;
 	
-	List<String> LOCAL_HOSTS = NetUtils.localAddresses();
+	List<String> LOCAL_HOSTS = LocalHostUtils.localAddresses();
 	
 	private boolean isOnlie = false;
 	
+	// properties: 每个应用一个通知文件; mapped: 共用一个内存映射注册文件
+	private String registryFormat = DubboClientLocalListener.REGISTRY_FORMAT_PROPERTIES;
+	
+	// 为每个provider端口额外提供共享内存通道(实验性), consumer配置local.shm=true时使用
+	private boolean sharedMemory = false;
+	
+	// 每个方向ring的大小, 2的幂
+	private int sharedMemoryCapacity = 1 << 20;
+	
+	private int sharedMemoryThreads = 8;
+	
+	// 本地通知续约间隔(毫秒), 需要明显小于consumer的leaseTimeout
+	private long leaseRenewInterval = 1000;
+	
+	private ApplicationContext applicationContext;
+	
+	private LocalNotifyPublisher publisher;
+	
 	private String notifyFilePath = System.getProperty("user.home") + File.separator + "barrier" + File.separator;
 	{
 		File file = new File(this.notifyFilePath);
@@ -69,50 +82,15 @@ public class DubboProviderRegisteBarrier implements BeanPostProcessor, Applicati
 	
 	@Override
 	public void onApplicationEvent(ApplicationContextEvent event) {
-		if(!isOnlie && event instanceof ContextStartedEvent //
-							&& !this.isRegisteHost()) {
-			this.notify(((ContextStartedEvent)event).getApplicationContext());
-		}
-//		if(event instanceof ContextClosedEvent //
-//						&& !this.isRegisteHost()) {
-//		}
-	}
-	
-	@SuppressWarnings("rawtypes")
-	private void notify(ApplicationContext context) {
-		ApplicationConfig app = context.getBean(ApplicationConfig.class);
-		Map<String, ServiceBean> providers = context.getBeansOfType(ServiceBean.class);
-		Properties prop = new Properties();
-		for(String key : providers.keySet()) {
-			ServiceBean bean = providers.get(key);
-			prop.put(this.notifyKey(bean, bean.getProtocol()), key);
-		}
-		if(prop.size() > 0) {
-			try {
-				delHistoryIfNecessary(app.getName());
-				FileOutputStream out = new FileOutputStream(notifyFilePath + File.separator + app.getName() + "-" + IdGen.get().nextId() + ".properties");
-				prop.store(out, "");
-			} catch (Exception e) {
-				logger.error("保存通知文件", e);
-			}
-		}
-	}
-	
-	private void delHistoryIfNecessary(String prefixName) {
-		File dir = new File(this.notifyFilePath);
-		File[] fs = dir.listFiles(new FilenameFilter() {
-			@Override
-			public boolean accept(File dir, String name) {
-				return name.startsWith(prefixName);
-			}
-		});
-		for(File file : fs) {
-			file.delete();
+		// 子容器的事件也会传播过来, 只处理自己所在的容器
+		if(event instanceof ContextClosedEvent && event.getApplicationContext() == this.applicationContext && publisher != null) {
+			this.publisher.close();
 		}
 	}
 	
-	private String notifyKey(ServiceBean<?> bean, ProtocolConfig cfg) {
-		return StringUtils.isBlank(bean.getGroup())? bean.getInterface() + "$" + cfg.getPort(): bean.getInterface() + "-" + bean.getGroup() + "$" + cfg.getPort();
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+		this.applicationContext = applicationContext;
 	}
 	
 	/**
@@ -146,6 +124,46 @@ public class DubboProviderRegisteBarrier implements BeanPostProcessor, Applicati
 		this.registerHostPattern = registerHostPattern;
 	}
 
+	public boolean isSharedMemory() {
+		return sharedMemory;
+	}
+
+	public void setSharedMemory(boolean sharedMemory) {
+		this.sharedMemory = sharedMemory;
+	}
+
+	public int getSharedMemoryCapacity() {
+		return sharedMemoryCapacity;
+	}
+
+	public void setSharedMemoryCapacity(int sharedMemoryCapacity) {
+		this.sharedMemoryCapacity = sharedMemoryCapacity;
+	}
+
+	public int getSharedMemoryThreads() {
+		return sharedMemoryThreads;
+	}
+
+	public void setSharedMemoryThreads(int sharedMemoryThreads) {
+		this.sharedMemoryThreads = sharedMemoryThreads;
+	}
+
+	public long getLeaseRenewInterval() {
+		return leaseRenewInterval;
+	}
+
+	public void setLeaseRenewInterval(long leaseRenewInterval) {
+		this.leaseRenewInterval = leaseRenewInterval;
+	}
+
+	public String getRegistryFormat() {
+		return registryFormat;
+	}
+
+	public void setRegistryFormat(String registryFormat) {
+		this.registryFormat = registryFormat;
+	}
+
 	@Override
 	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
 		return bean;
@@ -161,11 +179,9 @@ public class DubboProviderRegisteBarrier implements BeanPostProcessor, Applicati
 		this.logger.info(System.lineSeparator() + this.toString() //
 							+ System.lineSeparator() + ">>>>> >>>>> " + (this.isRegisteHost()? "本机做服务注册": "本机不做服务注册"));
 		if(!this.isRegisteHost()) {
-			try {
-				Thread.sleep(3000);
-			} catch (Exception e) {
-				// ignore
-			}
+			// 之后每个服务导出完成时发布本地通知
+			this.publisher = new LocalNotifyPublisher(notifyFilePath, registryFormat, sharedMemory, sharedMemoryCapacity, sharedMemoryThreads, leaseRenewInterval);
+			LocalNotifyPublisher.activate(publisher);
 		}
 	}
 	
@@ -201,7 +217,9 @@ public class DubboProviderRegisteBarrier implements BeanPostProcessor, Applicati
 		}
 		builer.append(System.lineSeparator());
 		builer.append("正则过滤IP表达式: " + this.registerHostPattern).append(System.lineSeparator())
-			  .append("本地服务通知目录: " + this.notifyFilePath);
+			  .append("本地服务通知目录: " + this.notifyFilePath).append(System.lineSeparator())
+			  .append("通知格式: " + this.registryFormat).append(System.lineSeparator())
+			  .append("共享内存通道: " + this.sharedMemory);
 		return builer.toString();
 	}
 
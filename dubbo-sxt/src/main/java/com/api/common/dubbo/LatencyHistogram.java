@@ -0,0 +1,149 @@
+package com.api.common.dubbo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * 无锁的对数分桶耗时直方图(HDR风格), 单位纳秒
+ * <p>
+ * 每个2的幂区间分成32个桶, 相对误差约3%; 记录只是一次数组自增, 不分配对象.
+ * 超过MAX_VALUE的值记到最后一个桶
+ *
+ * @author sxt
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	// 约18分钟
+	private static final long MAX_VALUE = (1L << 40) - 1;
+
+	private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+
+		@Override
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	}, 0);
+
+	public void record(long nanos) {
+		long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+		counts.incrementAndGet(index(value));
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		sum.reset();
+		max.reset();
+	}
+
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		return new Snapshot(copy, total, sum.sum(), max.get());
+	}
+
+	/**
+	 * 小于2*SUB_COUNT的值一个值一个桶, 之后每个2的幂区间SUB_COUNT个桶
+	 */
+	private static int index(long value) {
+		if(value < SUB_COUNT << 1) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+	}
+
+	/**
+	 * 桶的上界, 分位数按上界报告
+	 */
+	private static long upperBound(int index) {
+		if(index < SUB_COUNT << 1) {
+			return index;
+		}
+		int shift = index / SUB_COUNT - 1;
+		return (((long) (index % SUB_COUNT + SUB_COUNT + 1)) << shift) - 1;
+	}
+
+	public static class Snapshot {
+
+		private final long[] counts;
+
+		private final long count;
+
+		private final long sum;
+
+		private final long max;
+
+		Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public double getMean() {
+			return count == 0? 0: (double) sum / count;
+		}
+
+		/**
+		 * @param quantile 0~1
+		 */
+		public long percentile(double quantile) {
+			if(count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen >= rank) {
+					return Math.min(upperBound(i), max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * 微秒
+		 */
+		@Override
+		public String toString() {
+			return "count=" + count + ", mean=" + micros((long) this.getMean()) + ", p50=" + micros(this.percentile(0.5)) //
+					+ ", p90=" + micros(this.percentile(0.9)) + ", p99=" + micros(this.percentile(0.99)) //
+					+ ", p999=" + micros(this.percentile(0.999)) + ", max=" + micros(max);
+		}
+
+		private static String micros(long nanos) {
+			return String.format("%.1fus", nanos / 1000.0);
+		}
+
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.api.common.dubbo;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 最近N次调用耗时的滑动窗口, 用来估算分位数
+ * <p>
+ * 记录只是一次数组写入; 分位数每记录一批后重新计算一次, 读取不排序
+ *
+ * @author sxt
+ */
+public class LatencyWindow {
+
+	private static final int SIZE = 128;
+
+	// 每记录多少次重新计算分位数
+	private static final int REFRESH_EVERY = 32;
+
+	private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+
+	// long不会回绕
+	private final AtomicLong index = new AtomicLong();
+
+	private final double quantile;
+
+	private volatile long cachedQuantile = -1;
+
+	public LatencyWindow(double quantile) {
+		this.quantile = quantile;
+	}
+
+	public void record(long millis) {
+		long i = index.getAndIncrement();
+		samples.set((int) (i & (SIZE - 1)), millis);
+		if((i + 1) % REFRESH_EVERY == 0) {
+			this.refresh((int) Math.min(i + 1, SIZE));
+		}
+	}
+
+	/**
+	 * 样本不足时返回-1
+	 */
+	public long quantile() {
+		return cachedQuantile;
+	}
+
+	private void refresh(int count) {
+		long[] copy = new long[count];
+		for(int i = 0; i < count; i++) {
+			copy[i] = samples.get(i);
+		}
+		Arrays.sort(copy);
+		int rank = (int) Math.ceil(quantile * count) - 1;
+		this.cachedQuantile = copy[Math.max(0, Math.min(rank, count - 1))];
+	}
+
+}
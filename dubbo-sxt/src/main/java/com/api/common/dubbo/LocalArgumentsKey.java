@@ -0,0 +1,59 @@
+package com.api.common.dubbo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 方法参数作为key(参数类型 + deepEquals/deepHashCode), 结果缓存和请求合并使用
+ * <p>
+ * 保存参数数组的拷贝, hash只算一次; 参数应该是String/数字这类不可变的值.
+ * 参数类型也是key的一部分, 重载方法参数值相同(比如都是null)时不会混在一起; 请求合并时attachments也是key的一部分.
+ *
+ * @author sxt
+ */
+final class LocalArgumentsKey {
+
+	private static final Object[] NO_ARGUMENTS = new Object[0];
+
+	private static final Class<?>[] NO_TYPES = new Class<?>[0];
+
+	private final Class<?>[] parameterTypes;
+
+	private final Object[] arguments;
+
+	private final Map<String, String> attachments;
+
+	private final int hash;
+
+	LocalArgumentsKey(Class<?>[] parameterTypes, Object[] arguments) {
+		this(parameterTypes, arguments, null);
+	}
+
+	LocalArgumentsKey(Class<?>[] parameterTypes, Object[] arguments, Map<String, String> attachments) {
+		this.parameterTypes = parameterTypes == null? NO_TYPES: parameterTypes.clone();
+		this.arguments = arguments == null? NO_ARGUMENTS: arguments.clone();
+		this.attachments = attachments == null || attachments.isEmpty()? Collections.<String, String>emptyMap(): new HashMap<String, String>(attachments);
+		this.hash = 31 * (31 * Arrays.hashCode(this.parameterTypes) + Arrays.deepHashCode(this.arguments)) + this.attachments.hashCode();
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof LocalArgumentsKey)) {
+			return false;
+		}
+		LocalArgumentsKey other = (LocalArgumentsKey) obj;
+		return hash == other.hash && Arrays.equals(parameterTypes, other.parameterTypes) && Arrays.deepEquals(arguments, other.arguments) //
+				&& attachments.equals(other.attachments);
+	}
+
+}
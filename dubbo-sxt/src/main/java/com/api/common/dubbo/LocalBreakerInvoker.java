@@ -0,0 +1,91 @@
+package com.api.common.dubbo;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Invocation;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcException;
+import com.alibaba.dubbo.rpc.support.RpcUtils;
+
+/**
+ * 本地Invoker包装, 把每次调用的结果和耗时记到熔断器和负载统计
+ * <p>
+ * 业务异常也算本地provider正常响应; 异步调用只记录同步阶段的失败, 结果由LocalFallbackFuture记录;
+ * 负载统计只记录同步阶段的耗时
+ *
+ * @author sxt
+ */
+public class LocalBreakerInvoker<T> implements Invoker<T> {
+
+	private final Invoker<T> invoker;
+
+	private final LocalCircuitBreaker breaker;
+
+	private final LocalLoadStats load;
+
+	public LocalBreakerInvoker(Invoker<T> invoker, LocalCircuitBreaker breaker, LocalLoadStats load) {
+		this.invoker = invoker;
+		this.breaker = breaker;
+		this.load = load;
+	}
+
+	@Override
+	public Result invoke(Invocation invocation) throws RpcException {
+		long start = System.currentTimeMillis();
+		boolean async = RpcUtils.isAsync(invoker.getUrl(), invocation);
+		long loadStart = load.start();
+		try {
+			Result result = invoker.invoke(invocation);
+			if(!async) {
+				// 业务异常也算本地provider正常响应
+				breaker.onSuccess(System.currentTimeMillis() - start);
+			}
+			return result;
+		} catch (RpcException e) {
+			// 每次调用都要上报一次结果, 否则HALF_OPEN的放行次数会泄漏
+			if(e.isBiz()) {
+				breaker.onSuccess(System.currentTimeMillis() - start);
+			}
+			else {
+				breaker.onError(System.currentTimeMillis() - start);
+			}
+			throw e;
+		} finally {
+			load.end(loadStart);
+		}
+	}
+
+	public LocalCircuitBreaker getBreaker() {
+		return breaker;
+	}
+
+	public Invoker<T> getInvoker() {
+		return invoker;
+	}
+
+	@Override
+	public Class<T> getInterface() {
+		return invoker.getInterface();
+	}
+
+	@Override
+	public URL getUrl() {
+		return invoker.getUrl();
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return invoker.isAvailable();
+	}
+
+	@Override
+	public void destroy() {
+		invoker.destroy();
+	}
+
+	@Override
+	public String toString() {
+		return invoker.toString();
+	}
+
+}
@@ -0,0 +1,298 @@
+package com.api.common.dubbo;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.common.URL;
+
+/**
+ * 本地provider熔断器, 每个本地地址一个
+ * <p>
+ * CLOSED: 统计最近一段时间的失败率和慢调用比例, 超过阈值进入OPEN;
+ * OPEN: 不再路由到本地, 后台定时探测端口, 端口可连接后进入HALF_OPEN;
+ * HALF_OPEN: 放行少量请求, 全部成功回到CLOSED, 有一次失败回到OPEN;
+ * 过了openTime放行的请求都用完了还没有结论(结果没有上报)时重新放行一轮, 不会一直停在HALF_OPEN.
+ * 配置(reference参数, 同一个本地地址以第一个reference为准):
+ * <pre>
+ * local.breaker.failureRate   失败率阈值(%), 默认50
+ * local.breaker.slowRate      慢调用比例阈值(%), 默认100(不按慢调用熔断)
+ * local.breaker.slowCall      慢调用耗时(毫秒), 默认1000
+ * local.breaker.minCalls      窗口内最少调用次数, 默认5
+ * local.breaker.openTime      OPEN后多久开始探测(毫秒), 默认3000
+ * local.breaker.halfOpenCalls HALF_OPEN放行次数, 默认3
+ * </pre>
+ *
+ * @author sxt
+ */
+public class LocalCircuitBreaker {
+
+	private static Logger logger = Logger.getLogger(LocalCircuitBreaker.class);
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	// 统计窗口: 10个1秒的桶
+	private static final int BUCKETS = 10;
+
+	private static final long BUCKET_MILLIS = 1000;
+
+	private static final int PROBE_CONNECT_TIMEOUT = 200;
+
+	private static final ScheduledExecutorService PROBER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "local-breaker-prober");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final String name;
+
+	private final String host;
+
+	private final int port;
+
+	private final int failureRateThreshold;
+
+	private final int slowRateThreshold;
+
+	private final long slowCallMillis;
+
+	private final int minimumCalls;
+
+	private final long openMillis;
+
+	private final int halfOpenCalls;
+
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+
+	private final Bucket[] buckets = new Bucket[BUCKETS];
+
+	// HALF_OPEN时已放行/已成功的次数
+	private final AtomicInteger halfOpenPermits = new AtomicInteger();
+
+	private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+
+	// 每次进入HALF_OPEN或者重新放行时递增, 过期检查只处理当前这一轮
+	private final AtomicInteger halfOpenRound = new AtomicInteger();
+
+	private volatile boolean disposed = false;
+
+	public LocalCircuitBreaker(String name, String host, int port, URL url) {
+		this.name = name;
+		this.host = host;
+		this.port = port;
+		this.failureRateThreshold = url.getParameter("local.breaker.failureRate", 50);
+		this.slowRateThreshold = url.getParameter("local.breaker.slowRate", 100);
+		this.slowCallMillis = url.getParameter("local.breaker.slowCall", 1000L);
+		this.minimumCalls = url.getParameter("local.breaker.minCalls", 5);
+		this.openMillis = url.getParameter("local.breaker.openTime", 3000L);
+		this.halfOpenCalls = url.getParameter("local.breaker.halfOpenCalls", 3);
+		for(int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new Bucket();
+		}
+	}
+
+	/**
+	 * 是否可以路由到本地
+	 */
+	public boolean allowRequest() {
+		State current = state.get();
+		if(current == State.CLOSED) {
+			return true;
+		}
+		if(current == State.OPEN) {
+			return false;
+		}
+		return halfOpenPermits.incrementAndGet() <= halfOpenCalls;
+	}
+
+	public void onSuccess(long millis) {
+		State current = state.get();
+		if(current == State.HALF_OPEN) {
+			if(halfOpenSuccesses.incrementAndGet() >= halfOpenCalls) {
+				this.transition(State.HALF_OPEN, State.CLOSED);
+			}
+			return ;
+		}
+		if(current == State.CLOSED) {
+			this.record(false, millis >= slowCallMillis);
+		}
+	}
+
+	public void onError(long millis) {
+		State current = state.get();
+		if(current == State.HALF_OPEN) {
+			this.transition(State.HALF_OPEN, State.OPEN);
+			return ;
+		}
+		if(current == State.CLOSED) {
+			this.record(true, millis >= slowCallMillis);
+		}
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	/**
+	 * 本地地址已经下线, 停止探测
+	 */
+	public void dispose() {
+		this.disposed = true;
+	}
+
+	private void record(boolean failure, boolean slow) {
+		this.record(failure, slow, System.currentTimeMillis());
+	}
+
+	/**
+	 * 按指定时间统计, 测试桶的滚动时用
+	 */
+	void record(boolean failure, boolean slow, long now) {
+		Bucket bucket = this.bucket(now);
+		bucket.calls.incrementAndGet();
+		if(failure) {
+			bucket.failures.incrementAndGet();
+		}
+		if(slow) {
+			bucket.slows.incrementAndGet();
+		}
+		// 统计窗口
+		long calls = 0, failures = 0, slows = 0;
+		long oldest = now / BUCKET_MILLIS - BUCKETS + 1;
+		for(Bucket b : buckets) {
+			if(b.epoch.get() < oldest) {
+				continue ;
+			}
+			calls += b.calls.get();
+			failures += b.failures.get();
+			slows += b.slows.get();
+		}
+		if(calls < minimumCalls) {
+			return ;
+		}
+		if(failures * 100 >= failureRateThreshold * calls //
+				|| (slowRateThreshold < 100 && slows * 100 >= slowRateThreshold * calls)) {
+			this.transition(State.CLOSED, State.OPEN);
+		}
+	}
+
+	private Bucket bucket(long now) {
+		long epoch = now / BUCKET_MILLIS;
+		Bucket bucket = buckets[(int) (epoch % BUCKETS)];
+		long old = bucket.epoch.get();
+		if(old != epoch && bucket.epoch.compareAndSet(old, epoch)) {
+			bucket.calls.set(0);
+			bucket.failures.set(0);
+			bucket.slows.set(0);
+		}
+		return bucket;
+	}
+
+	private void transition(State from, State to) {
+		if(!state.compareAndSet(from, to)) {
+			return ;
+		}
+		logger.info("本地provider【" + name + "】熔断状态: " + from + " -> " + to);
+		if(to == State.OPEN) {
+			this.scheduleProbe();
+		}
+		else if(to == State.HALF_OPEN) {
+			this.startHalfOpenRound();
+		}
+		else if(to == State.CLOSED) {
+			for(Bucket bucket : buckets) {
+				bucket.epoch.set(0);
+			}
+		}
+	}
+
+	private void startHalfOpenRound() {
+		halfOpenSuccesses.set(0);
+		halfOpenPermits.set(0);
+		this.scheduleHalfOpenCheck(halfOpenRound.incrementAndGet());
+	}
+
+	private void scheduleHalfOpenCheck(final int round) {
+		PROBER.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				LocalCircuitBreaker.this.checkHalfOpen(round);
+			}
+		}, openMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 放行的请求都用完了, 但是既没有全部成功也没有失败, 重新放行一轮; 请求少还没用完时继续等
+	 */
+	private void checkHalfOpen(int round) {
+		if(disposed || state.get() != State.HALF_OPEN || halfOpenRound.get() != round) {
+			return ;
+		}
+		if(halfOpenPermits.get() < halfOpenCalls) {
+			this.scheduleHalfOpenCheck(round);
+			return ;
+		}
+		logger.warn("本地provider【" + name + "】HALF_OPEN放行的请求超过" + openMillis + "ms没有结论, 重新放行");
+		this.startHalfOpenRound();
+	}
+
+	private void scheduleProbe() {
+		PROBER.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				LocalCircuitBreaker.this.probe();
+			}
+		}, openMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 端口可以连接就进入HALF_OPEN, 由真实请求验证
+	 */
+	private void probe() {
+		if(disposed || state.get() != State.OPEN) {
+			return ;
+		}
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), PROBE_CONNECT_TIMEOUT);
+			this.transition(State.OPEN, State.HALF_OPEN);
+		} catch (Exception e) {
+			this.scheduleProbe();
+		} finally {
+			try {
+				socket.close();
+			} catch (Exception e) {
+				// ignore
+			}
+		}
+	}
+
+	private static class Bucket {
+
+		final AtomicLong epoch = new AtomicLong();
+
+		final AtomicLong calls = new AtomicLong();
+
+		final AtomicLong failures = new AtomicLong();
+
+		final AtomicLong slows = new AtomicLong();
+
+	}
+
+}
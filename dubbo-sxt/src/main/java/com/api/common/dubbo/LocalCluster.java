@@ -0,0 +1,776 @@
+package com.api.common.dubbo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.common.Constants;
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.Version;
+import com.alibaba.dubbo.common.utils.NetUtils;
+import com.alibaba.dubbo.rpc.Invocation;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcContext;
+import com.alibaba.dubbo.rpc.RpcException;
+import com.alibaba.dubbo.rpc.RpcResult;
+import com.alibaba.dubbo.rpc.cluster.Cluster;
+import com.alibaba.dubbo.rpc.cluster.Directory;
+import com.alibaba.dubbo.rpc.cluster.LoadBalance;
+import com.alibaba.dubbo.rpc.cluster.support.AbstractClusterInvoker;
+import com.alibaba.dubbo.rpc.cluster.support.AvailableClusterInvoker;
+import com.alibaba.dubbo.rpc.cluster.support.BroadcastClusterInvoker;
+import com.alibaba.dubbo.rpc.cluster.support.FailbackClusterInvoker;
+import com.alibaba.dubbo.rpc.cluster.support.FailfastClusterInvoker;
+import com.alibaba.dubbo.rpc.cluster.support.FailoverClusterInvoker;
+import com.alibaba.dubbo.rpc.cluster.support.FailsafeClusterInvoker;
+import com.alibaba.dubbo.rpc.cluster.support.ForkingClusterInvoker;
+import com.alibaba.dubbo.rpc.protocol.InvokerWrapper;
+import com.alibaba.dubbo.rpc.support.RpcUtils;
+
+/**
+ * 本地 服务cluster
+ * <p>
+ * list()路由到本地时只调用选中的本地Invoker一次, 不经过实际的cluster invoker; 本地失败后只在fallback()一处回退远程,
+ * 回退先取一个重试预算, 再按cluster的语义调用远程:
+ * <pre>
+ * failover   远程按retries重试, 每次重试再取一个预算; 预算用完时抛出最后一次的异常
+ * failfast   远程只调用一次, 失败直接抛出
+ * failsafe   远程失败时吞掉异常, 返回空结果; 预算用完时不回退远程, 同样返回空结果
+ * failback   远程失败时吞掉异常, 返回空结果, 由定时任务重试远程; 预算用完时不回退远程, 返回空结果, 也不会定时重试
+ * forking / available / broadcast   按各自的策略调用远程
+ * </pre>
+ * 异步调用在本地的Future失败后由LocalFallbackFuture取预算回退远程, 预算用完时Future以本地的异常结束
+ * (和dubbo一样, failsafe/failback不处理Future的异常). 没有路由到本地的请求直接交给cluster invoker.
+ * 
+ * @author sxt
+ */
+public class LocalCluster implements Cluster {
+	
+	private Logger logger = Logger.getLogger(this.getClass());
+	
+	public static final String READY_TIMEOUT_KEY = "local.ready.timeout";
+	
+	private LocalRequestTracer tracer = LocalRequestTracer.getInstance();
+	
+	private LocalProviderRegistry registry = LocalProviderRegistry.getInstance();
+	
+	// benchmark中直接设置的路由快照, 为null时读注册表当前的快照
+	private volatile LocalRoutingTable routingTable;
+	
+	private final String INTERCEPT_CLUSTER_NAME_PREFIX = "intercept";
+	
+	private final int startIndex = INTERCEPT_CLUSTER_NAME_PREFIX.length() + 1;
+	
+	{
+		// 没有经过DubboClientLocalListener启动时, 这里兜底; 重复调用无影响
+		registry.start();
+	}
+	
+	/**
+	 * benchmark中直接设置路由快照, 不需要真实的本地provider
+	 */
+	void setRoutingTable(LocalRoutingTable routingTable) {
+		this.routingTable = routingTable;
+	}
+	
+	/**
+	 * 每次调用直接读注册表的快照, 不订阅推送, LocalCluster实例不会被注册表持有
+	 */
+	private LocalRoutingTable routingTable() {
+		LocalRoutingTable table = this.routingTable;
+		return table != null? table: registry.getRoutingTable();
+	}
+	
+	@Override
+	public <T> Invoker<T> join(Directory<T> directory) throws RpcException {
+		String cluster = directory.getUrl().getParameter(Constants.CLUSTER_KEY, "");
+		String delegateName = cluster.startsWith(INTERCEPT_CLUSTER_NAME_PREFIX)? cluster.substring(this.startIndex): "";
+		if(StringUtils.isBlank(delegateName) || "null".equals(delegateName)) {
+			// 默认 failover
+			delegateName = "failover";
+		}
+		logger.info("use cluster invoker " + delegateName);
+		LocalRetryBudget retryBudget = LocalRetryBudget.of(resolveInterfaceKey(directory.getUrl()), directory.getUrl());
+		return new InterceptInvoker<T>(directory, this.createDelegate(delegateName, directory, retryBudget), retryBudget);
+	}
+	
+	/**
+	 * 每个reference创建一次实际的cluster invoker, 调用时不再反射
+	 */
+	private <T> DelegateInvoker<T> createDelegate(String delegateName, Directory<T> directory, LocalRetryBudget retryBudget) {
+		if("failover".equals(delegateName)) {
+			return new FailoverDelegate<T>(directory, retryBudget);
+		}
+		else if("failfast".equals(delegateName)) {
+			return new FailfastDelegate<T>(directory);
+		}
+		else if("failback".equals(delegateName)) {
+			return new FailbackDelegate<T>(directory);
+		}
+		else if("failsafe".equals(delegateName)) {
+			return new FailsafeDelegate<T>(directory);
+		}
+		else if("forking".equals(delegateName)) {
+			return new ForkingDelegate<T>(directory);
+		}
+		else if("available".equals(delegateName)) {
+			return new AvailableDelegate<T>(directory);
+		}
+		else if("broadcast".equals(delegateName)) {
+			return new BroadcastDelegate<T>(directory);
+		}
+		throw new RpcException("不支持【" + delegateName + "】, 手动添加一下吧-_-|| ==>>> LocalCluster.createDelegate()方法中");
+	}
+	
+	/**
+	 * interface[-group]
+	 */
+	static String resolveInterfaceKey(URL url) {
+		String invokeInterface = url.getServiceInterface();
+		String group = url.getParameter(Constants.GROUP_KEY);
+		return StringUtils.isBlank(group)? invokeInterface: invokeInterface + "-" + group;
+	}
+	
+	class InterceptInvoker<T> extends AbstractClusterInvoker<T> {
+		
+		// 实际的cluster invoker, 直接调用时只走远程
+		private final DelegateInvoker<T> delegate;
+		
+		// list()路由到本地时记录熔断器, 没有路由到本地为null
+		private final ThreadLocal<LocalCircuitBreaker> routedBreaker = new ThreadLocal<LocalCircuitBreaker>();
+		
+		// 对冲请求的本地请求线程上设置, list()选好路由后通知调用线程
+		private final ThreadLocal<HedgeLeg> hedgeLeg = new ThreadLocal<HedgeLeg>();
+		
+		// list()路由到远程且需要统计远程负载时记录开始时间
+		private final ThreadLocal<Long> remoteStart = new ThreadLocal<Long>();
+		
+		// interface[-group], 构造时计算一次
+		private final String interfaceKey;
+		
+		// 路由表的key: interface[-group]?参数, 配置相同的reference共用本地Invoker
+		private final String referKey;
+		
+		// destroy可能被调用多次, 只取消订阅一次
+		private final AtomicBoolean unsubscribed = new AtomicBoolean();
+		
+		private final LocalHedgePolicy hedgePolicy;
+		
+		// 本地失败回退远程的重试预算, 和delegate共用
+		private final LocalRetryBudget retryBudget;
+		
+		// failsafe/failback: 不抛出异常, 预算用完时返回空结果
+		private final boolean swallowFailure;
+		
+		private final LocalLoadBalance loadBalance;
+		
+		// 本地路由日志采样率, 0不打印
+		private final double traceSampleRate;
+		
+		private final LocalRoutingMetrics.ServiceMetrics metrics;
+		
+		// 没有开启录制为null
+		private final LocalTrafficCapture capture;
+		
+		// 没有方法开启结果缓存为null
+		private final LocalResultCache resultCache;
+		
+		// 没有方法开启请求合并为null
+		private final LocalRequestCoalescer coalescer;
+		
+		public InterceptInvoker(Directory<T> directory, DelegateInvoker<T> delegate, LocalRetryBudget retryBudget) {
+			super(directory);
+			this.delegate = delegate;
+			this.retryBudget = retryBudget;
+			this.swallowFailure = delegate instanceof FailsafeDelegate || delegate instanceof FailbackDelegate;
+			this.interfaceKey = resolveInterfaceKey(directory.getUrl());
+			this.hedgePolicy = new LocalHedgePolicy(directory.getUrl());
+			this.loadBalance = new LocalLoadBalance(directory.getUrl());
+			this.traceSampleRate = LocalRequestTracer.sampleRate(directory.getUrl());
+			this.metrics = LocalRoutingMetrics.getInstance().service(interfaceKey);
+			this.capture = LocalTrafficCapture.open(interfaceKey, directory.getUrl());
+			this.resultCache = LocalResultCache.create(directory.getUrl(), metrics);
+			this.coalescer = LocalRequestCoalescer.create(directory.getUrl(), metrics);
+			this.referKey = registry.subscribe(interfaceKey, directory.getInterface(), directory.getUrl());
+			this.awaitLocalReady(directory.getUrl());
+		}
+		
+		/**
+		 * 有本地provider时等连接就绪, 第一个请求就能走本地; 没有本地provider不等待
+		 */
+		private void awaitLocalReady(URL url) {
+			long timeout = url.getParameter(READY_TIMEOUT_KEY, DubboClientLocalListener.readyTimeout);
+			if(timeout <= 0) {
+				return ;
+			}
+			long start = System.currentTimeMillis();
+			if(registry.awaitReady(interfaceKey, referKey, timeout)) {
+				logger.info("本地provider【" + interfaceKey + "】就绪, 等待" + (System.currentTimeMillis() - start) + "ms");
+			}
+			else if(System.currentTimeMillis() - start >= timeout) {
+				logger.warn("等待本地provider【" + interfaceKey + "】就绪超时: " + timeout + "ms, 先走远程");
+			}
+		}
+		
+		@Override
+		protected Result doInvoke(Invocation invocation, List<Invoker<T>> invokers, LoadBalance loadbalance)
+				throws RpcException {
+			if(routedBreaker.get() != null) {
+				return this.invokeLocal(invocation, invokers, loadbalance);
+			}
+			return delegate.doInvoke(invocation, invokers, loadbalance);
+		}
+		
+		/**
+		 * 只调用选中的本地Invoker一次, 不经过delegate(failover会重试远程, failsafe/failback会吞掉本地的异常);
+		 * 失败时由fallback()回退远程
+		 */
+		private Result invokeLocal(Invocation invocation, List<Invoker<T>> invokers, LoadBalance loadbalance) throws RpcException {
+			super.checkInvokers(invokers, invocation);
+			Invoker<T> invoker = super.select(loadbalance, invocation, invokers, null);
+			try {
+				return invoker.invoke(invocation);
+			} catch (RpcException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				throw new RpcException(e.getMessage(), e);
+			}
+		}
+		
+		@Override
+		public Result invoke(Invocation invocation) throws RpcException {
+			if((resultCache == null && coalescer == null) || RpcUtils.isAsync(super.getUrl(), invocation)) {
+				return this.invokeUncached(invocation);
+			}
+			if(resultCache == null) {
+				return this.invokeCoalesced(invocation);
+			}
+			// 命中缓存不算请求, 也不录制
+			List<LocalRoute> routes = routingTable().getAll(referKey);
+			Result result = resultCache.get(invocation, routes);
+			if(result == null) {
+				result = this.invokeCoalesced(invocation);
+				resultCache.put(invocation, result, routes);
+			}
+			return result;
+		}
+		
+		/**
+		 * 相同的请求正在进行中时等它的结果, 合并的请求不算请求, 也不录制
+		 */
+		private Result invokeCoalesced(Invocation invocation) throws RpcException {
+			LocalRequestCoalescer.Flight flight = coalescer == null? null: coalescer.join(invocation);
+			if(flight == null) {
+				return this.invokeUncached(invocation);
+			}
+			if(!flight.isLeader()) {
+				return flight.await();
+			}
+			Result result = null;
+			RuntimeException error = null;
+			try {
+				result = this.invokeUncached(invocation);
+				return result;
+			} catch (RuntimeException e) {
+				error = e;
+				throw e;
+			} finally {
+				flight.complete(result, error);
+			}
+		}
+		
+		private Result invokeUncached(Invocation invocation) throws RpcException {
+			retryBudget.onRequest();
+			if(capture == null) {
+				return this.route(invocation);
+			}
+			long start = System.nanoTime();
+			try {
+				return this.route(invocation);
+			} finally {
+				capture.record(super.getInterface(), invocation, start);
+			}
+		}
+		
+		@Override
+		public void destroy() {
+			super.destroy();
+			if(unsubscribed.compareAndSet(false, true)) {
+				registry.unsubscribe(referKey);
+			}
+			if(capture != null) {
+				capture.close();
+			}
+		}
+		
+		private Result route(Invocation invocation) throws RpcException {
+			if(routingTable().get(referKey) != null) {
+				if(RpcUtils.isAsync(super.getUrl(), invocation)) {
+					return this.invokeAsync(invocation);
+				}
+				if(hedgePolicy.isHedged(invocation.getMethodName())) {
+					return this.invokeHedged(invocation);
+				}
+			}
+			return this.invokeLocalFirst(invocation);
+		}
+		
+		/**
+		 * 本地优先, 本地调用失败时远程provider重试一次
+		 */
+		private Result invokeLocalFirst(Invocation invocation) throws RpcException {
+			LocalRoutingMetrics.MethodMetrics methodMetrics = metrics.method(invocation.getMethodName());
+			long start = System.nanoTime();
+			routedBreaker.set(null);
+			try {
+				Result result = super.invoke(invocation);
+				this.recordCall(methodMetrics, start);
+				return result;
+			} catch (RpcException e) {
+				// list()没有路由到本地, 不是本地的问题
+				if(routedBreaker.get() == null) {
+					methodMetrics.recordRemote(System.nanoTime() - start);
+					throw e;
+				}
+				return this.fallback(invocation, methodMetrics, start, e);
+			} finally {
+				routedBreaker.set(null);
+				this.endRemote();
+			}
+		}
+		
+		/**
+		 * 记录远程集群的负载, list()没有路由到远程时什么都不做
+		 */
+		private void endRemote() {
+			Long start = remoteStart.get();
+			if(start != null) {
+				remoteStart.remove();
+				loadBalance.getRemoteLoad().end(start);
+			}
+		}
+		
+		/**
+		 * 路由到本地时doInvoke()只调用本地Invoker, 不会在delegate里重试到远程, routedBreaker就是实际处理请求的一方
+		 */
+		private void recordCall(LocalRoutingMetrics.MethodMetrics methodMetrics, long start) {
+			if(routedBreaker.get() != null) {
+				methodMetrics.recordLocal(System.nanoTime() - start);
+			}
+			else {
+				methodMetrics.recordRemote(System.nanoTime() - start);
+			}
+		}
+		
+		/**
+		 * 本地调用失败, 按cluster的语义调用远程(唯一回退远程的地方); 重试预算用完时抛出本地的异常,
+		 * failsafe/failback返回空结果. 业务异常不回退
+		 */
+		private Result fallback(Invocation invocation, LocalRoutingMetrics.MethodMetrics methodMetrics, long start, RpcException e) {
+			long fallbackStart = System.nanoTime();
+			methodMetrics.recordLocalError(fallbackStart - start);
+			if(e.isBiz() || !retryBudget.tryRetry()) {
+				if(swallowFailure) {
+					logger.warn("本地调用失败, 不回退远程, 忽略异常: " + e.getMessage());
+					return new SwallowedResult();
+				}
+				if(!e.isBiz()) {
+					logger.warn("本地调用失败, 重试预算已用完, 不回退远程: " + e.getMessage());
+				}
+				throw e;
+			}
+			logger.warn("本地调用失败, 回退远程: " + e.getMessage());
+			try {
+				return this.remote().invoke(invocation);
+			} finally {
+				methodMetrics.recordFallback(System.nanoTime() - fallbackStart);
+			}
+		}
+		
+		/**
+		 * 只调用远程, delegate的list()没有被拦截; 按delegate的cluster语义重试或者吞掉异常
+		 */
+		private Invoker<T> remote() {
+			return this.delegate;
+		}
+		
+		/**
+		 * 对冲请求: 本地超过延迟没有返回时再请求一次远程, 取先成功的结果
+		 * <p>
+		 * 延迟按本地请求实际选中的路由计算; 本地请求路由到了远程时不对冲; 对冲线程池满了直接在调用线程上调用, 不对冲
+		 */
+		private Result invokeHedged(final Invocation invocation) throws RpcException {
+			final Map<String, String> attachments = new HashMap<String, String>(RpcContext.getContext().getAttachments());
+			final Invoker<T> remote = this.remote();
+			final HedgeLeg leg = new HedgeLeg();
+			CompletionService<Result> completion = new ExecutorCompletionService<Result>(LocalHedgePolicy.HEDGE_EXECUTOR);
+			final long start = System.currentTimeMillis();
+			try {
+				completion.submit(new Callable<Result>() {
+					
+					@Override
+					public Result call() throws Exception {
+						RpcContext.getContext().setAttachments(attachments);
+						hedgeLeg.set(leg);
+						try {
+							Result result = InterceptInvoker.this.invokeLocalFirst(invocation);
+							LocalRoute route = leg.route;
+							if(route != null) {
+								route.getLatency().record(System.currentTimeMillis() - start);
+							}
+							return result;
+						} finally {
+							hedgeLeg.remove();
+							leg.routed.countDown();
+							RpcContext.removeContext();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				return this.invokeLocalFirst(invocation);
+			}
+			int pending = 1;
+			Exception failure = null;
+			try {
+				Future<Result> first = null;
+				// 选路由很快, 最多等一个默认延迟; 本地请求路由到远程时不对冲
+				boolean routed = leg.routed.await(hedgePolicy.delay(null), TimeUnit.MILLISECONDS);
+				boolean hedge = !routed || leg.route != null;
+				if(hedge) {
+					long remaining = hedgePolicy.delay(leg.route) - (System.currentTimeMillis() - start);
+					first = completion.poll(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+				}
+				if(first == null && hedge && hedgePolicy.tryAcquire()) {
+					try {
+						completion.submit(new Callable<Result>() {
+							
+							@Override
+							public Result call() throws Exception {
+								RpcContext.getContext().setAttachments(attachments);
+								try {
+									return remote.invoke(invocation);
+								} finally {
+									hedgePolicy.release();
+									RpcContext.removeContext();
+								}
+							}
+						});
+						pending++;
+						metrics.method(invocation.getMethodName()).recordHedge();
+					} catch (RejectedExecutionException e) {
+						hedgePolicy.release();
+					}
+				}
+				for(; pending > 0; pending--) {
+					try {
+						if(first != null) {
+							return first.get();
+						}
+						return completion.take().get();
+					} catch (ExecutionException e) {
+						first = null;
+						failure = this.unwrap(e);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RpcException(e);
+			}
+			throw failure instanceof RpcException? (RpcException) failure: new RpcException(failure);
+		}
+		
+		private Exception unwrap(ExecutionException e) {
+			Throwable cause = e.getCause();
+			return cause instanceof Exception? (Exception) cause: new RpcException(cause);
+		}
+		
+		/**
+		 * 异步调用: 本地请求发出后立即返回, 本地失败时在回退线程里异步调用远程
+		 * <p>
+		 * 路由到本地时只发给本地Invoker(invokeLocal), RpcContext中的Future一定是本地的, 这时才挂上本地熔断器和远程回退;
+		 * 同步阶段就失败时在这里回退远程, 远程的Future不再挂回退
+		 */
+		private Result invokeAsync(final Invocation invocation) throws RpcException {
+			LocalRoutingMetrics.MethodMetrics methodMetrics = metrics.method(invocation.getMethodName());
+			long start = System.nanoTime();
+			routedBreaker.set(null);
+			try {
+				Result result = super.invoke(invocation);
+				// 只统计发出请求的耗时
+				this.recordCall(methodMetrics, start);
+				// 不为null时请求只发给了本地Invoker
+				LocalCircuitBreaker breaker = routedBreaker.get();
+				if(breaker != null) {
+					LocalFallbackFuture.chain(invocation, this.remote(), breaker, retryBudget);
+				}
+				return result;
+			} catch (RpcException e) {
+				// 连接本地失败, 同步阶段就抛出了
+				if(routedBreaker.get() == null) {
+					methodMetrics.recordRemote(System.nanoTime() - start);
+					throw e;
+				}
+				return this.fallback(invocation, methodMetrics, start, e);
+			} finally {
+				routedBreaker.set(null);
+				this.endRemote();
+			}
+		}
+
+		/**
+		 * 选择 invoker
+		 */
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		protected List<Invoker<T>> list(Invocation invocation) throws RpcException {
+			long start = System.nanoTime();
+			// local, 路由表中只有已经连接好的本地provider
+			List<LocalRoute> routes = routingTable().getAll(referKey);
+			// 回收过的本地Invoker(可能只是其中一部分), 有请求时在后台重新连接
+			registry.getInvokerManager().reconnectIfIdle(referKey);
+			if(routes.isEmpty()) {
+				metrics.recordOverhead(System.nanoTime() - start);
+				return super.list(invocation);
+			}
+			List<Invoker<T>> remoteInvokers = null;
+			if(!loadBalance.routeLocal()) {
+				// 按比例分到远程; 没有远程provider时仍然走本地
+				remoteInvokers = super.list(invocation);
+				if(remoteInvokers != null && !remoteInvokers.isEmpty()) {
+					return this.routeRemote(remoteInvokers, start);
+				}
+			}
+			int remoteCount = 0;
+			if(loadBalance.isTrackRemote()) {
+				if(remoteInvokers == null) {
+					remoteInvokers = super.list(invocation);
+				}
+				remoteCount = remoteInvokers == null? 0: remoteInvokers.size();
+			}
+			// 本地全部熔断中或者远程负载更低时走远程
+			LocalRoute route = loadBalance.select(routes, remoteCount);
+			if(route == null) {
+				return this.routeRemote(remoteInvokers != null? remoteInvokers: super.list(invocation), start);
+			}
+			LocalCircuitBreaker breaker = route.getBreaker();
+			routedBreaker.set(breaker);
+			route.touch();
+			HedgeLeg leg = hedgeLeg.get();
+			if(leg != null) {
+				leg.route = route;
+				leg.routed.countDown();
+			}
+			tracer.trace(traceSampleRate, super.getInterface(), invocation, route.getEndpoint().getPort());
+			metrics.recordOverhead(System.nanoTime() - start);
+			return (List) route.getInvokers();
+		}
+		
+		private List<Invoker<T>> routeRemote(List<Invoker<T>> remoteInvokers, long start) {
+			if(loadBalance.isTrackRemote()) {
+				remoteStart.set(loadBalance.getRemoteLoad().start());
+			}
+			metrics.recordOverhead(System.nanoTime() - start);
+			return remoteInvokers;
+		}
+
+	}
+
+	/**
+	 * 对冲请求中的本地请求, list()选中本地路由或者请求结束时routed计数归零; 路由到远程时route为null
+	 */
+	static class HedgeLeg {
+		
+		final CountDownLatch routed = new CountDownLatch(1);
+		
+		volatile LocalRoute route;
+		
+	}
+	
+	/**
+	 * doInvoke公开的cluster invoker, 由InterceptInvoker传入已经选好的invokers
+	 */
+	interface DelegateInvoker<T> extends Invoker<T> {
+		
+		Result doInvoke(Invocation invocation, List<Invoker<T>> invokers, LoadBalance loadbalance) throws RpcException;
+		
+	}
+	
+	static class FailoverDelegate<T> extends FailoverClusterInvoker<T> implements DelegateInvoker<T> {
+		
+		private final LocalRetryBudget retryBudget;
+		
+		FailoverDelegate(Directory<T> directory, LocalRetryBudget retryBudget) {
+			super(directory);
+			this.retryBudget = retryBudget;
+		}
+		
+		/**
+		 * 同FailoverClusterInvoker, 每次重试前先取重试预算, 取不到时不再重试.
+		 * 只处理远程的请求: 路由到本地时InterceptInvoker不调用这里, 本地失败后由fallback()经invoke()调用
+		 */
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public Result doInvoke(Invocation invocation, List<Invoker<T>> invokers, LoadBalance loadbalance) throws RpcException {
+			List<Invoker<T>> copyinvokers = invokers;
+			super.checkInvokers(copyinvokers, invocation);
+			int len = Math.max(1, super.getUrl().getMethodParameter(invocation.getMethodName(), Constants.RETRIES_KEY, Constants.DEFAULT_RETRIES) + 1);
+			RpcException le = null;
+			List<Invoker<T>> invoked = new ArrayList<Invoker<T>>(copyinvokers.size());
+			Set<String> providers = new HashSet<String>(len);
+			for(int i = 0; i < len; i++) {
+				if(i > 0) {
+					if(!retryBudget.tryRetry()) {
+						break;
+					}
+					// 重试时重新list(注册中心的远程provider), 同FailoverClusterInvoker
+					super.checkWheatherDestoried();
+					copyinvokers = super.list(invocation);
+					super.checkInvokers(copyinvokers, invocation);
+				}
+				Invoker<T> invoker = super.select(loadbalance, invocation, copyinvokers, invoked);
+				invoked.add(invoker);
+				RpcContext.getContext().setInvokers((List) invoked);
+				try {
+					return invoker.invoke(invocation);
+				} catch (RpcException e) {
+					if(e.isBiz()) {
+						throw e;
+					}
+					le = e;
+				} catch (Throwable e) {
+					le = new RpcException(e.getMessage(), e);
+				} finally {
+					providers.add(invoker.getUrl().getAddress());
+				}
+			}
+			throw new RpcException(le.getCode(), "Failed to invoke the method " + invocation.getMethodName() + " in the service " //
+					+ super.getInterface().getName() + ". Tried " + invoked.size() + " times of the providers " + providers //
+					+ " (" + copyinvokers.size() + "/" + invokers.size() + ") from the registry " + directory.getUrl().getAddress() //
+					+ " on the consumer " + NetUtils.getLocalHost() + " using the dubbo version " + Version.getVersion() //
+					+ ". Last error is: " + le.getMessage(), le.getCause() != null? le.getCause(): le);
+		}
+		
+	}
+	
+	static class FailfastDelegate<T> extends FailfastClusterInvoker<T> implements DelegateInvoker<T> {
+		
+		FailfastDelegate(Directory<T> directory) {
+			super(directory);
+		}
+		
+	}
+	
+	/**
+	 * failsafe/failback吞掉异常后返回的空结果, 不是provider返回的, 不能缓存
+	 */
+	static class SwallowedResult extends RpcResult {
+		
+		private static final long serialVersionUID = 1L;
+		
+	}
+	
+	static class FailbackDelegate<T> extends FailbackClusterInvoker<T> implements DelegateInvoker<T> {
+		
+		// 选中的Invoker正常返回时设置, 没有设置说明FailbackClusterInvoker吞掉了异常
+		private final ThreadLocal<Boolean> served = new ThreadLocal<Boolean>();
+		
+		FailbackDelegate(Directory<T> directory) {
+			super(directory);
+		}
+		
+		/**
+		 * 同FailbackClusterInvoker(失败后定时重试), 吞掉异常时返回SwallowedResult
+		 */
+		@Override
+		public Result doInvoke(Invocation invocation, List<Invoker<T>> invokers, LoadBalance loadbalance) throws RpcException {
+			served.remove();
+			try {
+				Result result = super.doInvoke(invocation, invokers, loadbalance);
+				return served.get() != null? result: new SwallowedResult();
+			} finally {
+				served.remove();
+			}
+		}
+		
+		@Override
+		protected Invoker<T> select(LoadBalance loadbalance, Invocation invocation, List<Invoker<T>> invokers, List<Invoker<T>> selected) throws RpcException {
+			Invoker<T> invoker = super.select(loadbalance, invocation, invokers, selected);
+			return new InvokerWrapper<T>(invoker, invoker.getUrl()) {
+				
+				@Override
+				public Result invoke(Invocation invocation) throws RpcException {
+					Result result = super.invoke(invocation);
+					served.set(Boolean.TRUE);
+					return result;
+				}
+			};
+		}
+		
+	}
+	
+	static class FailsafeDelegate<T> extends FailsafeClusterInvoker<T> implements DelegateInvoker<T> {
+		
+		private static Logger logger = Logger.getLogger(FailsafeDelegate.class);
+		
+		FailsafeDelegate(Directory<T> directory) {
+			super(directory);
+		}
+		
+		/**
+		 * 同FailsafeClusterInvoker, 吞掉异常时返回SwallowedResult
+		 */
+		@Override
+		public Result doInvoke(Invocation invocation, List<Invoker<T>> invokers, LoadBalance loadbalance) throws RpcException {
+			try {
+				super.checkInvokers(invokers, invocation);
+				Invoker<T> invoker = super.select(loadbalance, invocation, invokers, null);
+				return invoker.invoke(invocation);
+			} catch (Throwable e) {
+				logger.error("failsafe忽略异常: " + e.getMessage(), e);
+				return new SwallowedResult();
+			}
+		}
+		
+	}
+	
+	static class ForkingDelegate<T> extends ForkingClusterInvoker<T> implements DelegateInvoker<T> {
+		
+		ForkingDelegate(Directory<T> directory) {
+			super(directory);
+		}
+		
+	}
+	
+	static class AvailableDelegate<T> extends AvailableClusterInvoker<T> implements DelegateInvoker<T> {
+		
+		AvailableDelegate(Directory<T> directory) {
+			super(directory);
+		}
+		
+	}
+	
+	static class BroadcastDelegate<T> extends BroadcastClusterInvoker<T> implements DelegateInvoker<T> {
+		
+		BroadcastDelegate(Directory<T> directory) {
+			super(directory);
+		}
+		
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.api.common.dubbo;
+
+/**
+ * 本地provider地址, 对应通知文件中的一条记录
+ * <p>
+ * 通知key格式: interface[-group]$port
+ *
+ * @author sxt
+ */
+public final class LocalEndpoint {
+
+	static final char PORT_SEPARATOR = '$';
+
+	// 同一个进程导出的服务, 没有通知文件
+	public static final String IN_JVM_SOURCE = "injvm";
+
+	// interface[-group]
+	private final String interfaceKey;
+
+	// interface[-group]$port
+	private final String localKey;
+
+	private final int port;
+
+	// 来源通知文件
+	private final String fileName;
+
+	// 来源通知文件修改时间
+	private final long lastModified;
+
+	// 是否是同一个进程中的provider
+	private final boolean inJvm;
+
+	private LocalEndpoint(String interfaceKey, String localKey, int port, String fileName, long lastModified, boolean inJvm) {
+		this.interfaceKey = interfaceKey;
+		this.localKey = localKey;
+		this.port = port;
+		this.fileName = fileName;
+		this.lastModified = lastModified;
+		this.inJvm = inJvm;
+	}
+
+	/**
+	 * 拼接通知key: interface[-group]$port
+	 */
+	public static String localKey(String interfaceName, String group, int port) {
+		StringBuilder builder = new StringBuilder(interfaceName);
+		if(group != null && group.length() > 0) {
+			builder.append('-').append(group);
+		}
+		return builder.append(PORT_SEPARATOR).append(port).toString();
+	}
+
+	/**
+	 * 解析通知key, 格式不对返回null
+	 */
+	public static LocalEndpoint parse(String localKey, String fileName, long lastModified) {
+		return parse(localKey, fileName, lastModified, false);
+	}
+
+	/**
+	 * 同一个进程中导出的服务, 优先于所有通知文件
+	 */
+	public static LocalEndpoint inJvm(String localKey) {
+		return parse(localKey, IN_JVM_SOURCE, Long.MAX_VALUE, true);
+	}
+
+	private static LocalEndpoint parse(String localKey, String fileName, long lastModified, boolean inJvm) {
+		int index = localKey.lastIndexOf(PORT_SEPARATOR);
+		if(index <= 0 || index == localKey.length() - 1) {
+			return null;
+		}
+		try {
+			int port = Integer.parseInt(localKey.substring(index + 1));
+			return new LocalEndpoint(localKey.substring(0, index), localKey, port, fileName, lastModified, inJvm);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public String getInterfaceKey() {
+		return interfaceKey;
+	}
+
+	public String getLocalKey() {
+		return localKey;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public boolean isInJvm() {
+		return inJvm;
+	}
+
+	/**
+	 * 地址和连接方式都相同, 可以共用已经连接好的Invoker
+	 */
+	public boolean sameRoute(LocalEndpoint other) {
+		return other != null && localKey.equals(other.localKey) && inJvm == other.inJvm;
+	}
+
+	@Override
+	public String toString() {
+		return localKey + "@" + fileName;
+	}
+
+}
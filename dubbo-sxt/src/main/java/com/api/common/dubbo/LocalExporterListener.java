@@ -0,0 +1,34 @@
+package com.api.common.dubbo;
+
+import com.alibaba.dubbo.common.extension.Activate;
+import com.alibaba.dubbo.rpc.Exporter;
+import com.alibaba.dubbo.rpc.ExporterListener;
+import com.alibaba.dubbo.rpc.RpcException;
+
+/**
+ * 服务导出/取消导出时通知LocalNotifyPublisher, 没有激活的publisher时什么都不做
+ * <p>
+ * 在META-INF/dubbo/com.alibaba.dubbo.rpc.ExporterListener中声明, 对所有服务自动生效
+ *
+ * @author sxt
+ */
+@Activate
+public class LocalExporterListener implements ExporterListener {
+
+	@Override
+	public void exported(Exporter<?> exporter) throws RpcException {
+		LocalNotifyPublisher publisher = LocalNotifyPublisher.getActive();
+		if(publisher != null) {
+			publisher.exported(exporter);
+		}
+	}
+
+	@Override
+	public void unexported(Exporter<?> exporter) {
+		LocalNotifyPublisher publisher = LocalNotifyPublisher.getActive();
+		if(publisher != null) {
+			publisher.unexported(exporter);
+		}
+	}
+
+}
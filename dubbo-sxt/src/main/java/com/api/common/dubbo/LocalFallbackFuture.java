@@ -0,0 +1,253 @@
+package com.api.common.dubbo;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.rpc.Invocation;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcContext;
+import com.alibaba.dubbo.rpc.RpcException;
+import com.alibaba.dubbo.rpc.RpcResult;
+import com.alibaba.dubbo.rpc.protocol.dubbo.FutureAdapter;
+import com.alibaba.dubbo.remoting.exchange.ResponseCallback;
+import com.alibaba.dubbo.remoting.exchange.ResponseFuture;
+import com.alibaba.dubbo.remoting.exchange.support.DefaultFuture;
+
+/**
+ * 异步调用(async=true)时本地优先的Future
+ * <p>
+ * 本地调用的ResponseFuture失败(超时/连接断开)后, 在回退线程里异步调用远程, 调用线程不会被阻塞;
+ * 替换RpcContext中的Future, get()的语义和dubbo的FutureAdapter一致.
+ * DefaultFuture只有一个回调, FutureFilter已经设置的回调(onreturn/onthrow)保留下来, 由本类的回调接着调用:
+ * 本地成功或者不回退时通知本地的回调, 回退远程时由远程请求自己的FutureFilter回调通知, 每次调用只通知一次
+ *
+ * @author sxt
+ */
+public class LocalFallbackFuture implements Future<Object> {
+
+	private static Logger logger = Logger.getLogger(LocalFallbackFuture.class);
+
+	private static final int FALLBACK_THREADS = 16;
+
+	private static final int FALLBACK_QUEUE_SIZE = 1024;
+
+	// 只负责发起远程异步请求, 不会阻塞等待结果; 队列满了不回退
+	private static final ThreadPoolExecutor FALLBACK_EXECUTOR = new ThreadPoolExecutor(FALLBACK_THREADS, FALLBACK_THREADS, 60, TimeUnit.SECONDS, //
+			new LinkedBlockingQueue<Runnable>(FALLBACK_QUEUE_SIZE), new ThreadFactory() {
+
+				private final AtomicInteger index = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "local-async-fallback-" + index.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	// DefaultFuture.callback, 取不到时(dubbo版本不同)直接替换回调
+	private static final Field CALLBACK_FIELD = callbackField();
+
+	static {
+		FALLBACK_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	private final CompletableFuture<Result> result = new CompletableFuture<Result>();
+
+	private LocalFallbackFuture() {
+	}
+
+	/**
+	 * 本地异步调用已经发出, 把RpcContext中的Future换成带远程回退的Future
+	 *
+	 * @param remote 远程调用, 本地失败时使用
+	 * @param breaker 本地地址的熔断器, 记录本地调用结果
+	 * @param retryBudget 重试预算, 用完时不回退远程
+	 */
+	public static void chain(final Invocation invocation, final Invoker<?> remote, final LocalCircuitBreaker breaker, final LocalRetryBudget retryBudget) {
+		final long start = System.currentTimeMillis();
+		Future<?> localFuture = RpcContext.getContext().getFuture();
+		if(!(localFuture instanceof FutureAdapter)) {
+			// oneway或者不是dubbo协议, 没有可以回退的Future; 请求已经发出, 算成功
+			breaker.onSuccess(System.currentTimeMillis() - start);
+			return ;
+		}
+		final LocalFallbackFuture future = new LocalFallbackFuture();
+		final Map<String, String> attachments = new HashMap<String, String>(RpcContext.getContext().getAttachments());
+		chainCallback(((FutureAdapter<?>) localFuture).getFuture(), new ChainedCallback() {
+
+			@Override
+			public void done(Object response) {
+				breaker.onSuccess(System.currentTimeMillis() - start);
+				future.result.complete((Result) response);
+				this.fireDone(response);
+			}
+
+			@Override
+			public void caught(final Throwable exception) {
+				breaker.onError(System.currentTimeMillis() - start);
+				if(!retryBudget.tryRetry()) {
+					logger.warn("本地异步调用失败, 重试预算已用完, 不回退远程: " + exception.getMessage());
+					future.result.completeExceptionally(exception);
+					this.fireCaught(exception);
+					return ;
+				}
+				try {
+					FALLBACK_EXECUTOR.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							future.invokeRemote(invocation, remote, attachments);
+						}
+					});
+					logger.warn("本地异步调用失败, 回退远程: " + exception.getMessage());
+				} catch (RejectedExecutionException e) {
+					logger.warn("本地异步调用失败, 回退线程池已满, 不回退远程: " + exception.getMessage());
+					future.result.completeExceptionally(exception);
+					this.fireCaught(exception);
+				}
+			}
+		});
+		RpcContext.getContext().setFuture(future);
+	}
+
+	private void invokeRemote(Invocation invocation, Invoker<?> remote, Map<String, String> attachments) {
+		RpcContext.getContext().setAttachments(attachments);
+		try {
+			Result remoteResult = remote.invoke(invocation);
+			Future<?> remoteFuture = RpcContext.getContext().getFuture();
+			if(!(remoteFuture instanceof FutureAdapter)) {
+				result.complete(remoteResult);
+				return ;
+			}
+			chainCallback(((FutureAdapter<?>) remoteFuture).getFuture(), new ChainedCallback() {
+
+				@Override
+				public void done(Object response) {
+					result.complete((Result) response);
+					this.fireDone(response);
+				}
+
+				@Override
+				public void caught(Throwable exception) {
+					result.completeExceptionally(exception);
+					this.fireCaught(exception);
+				}
+			});
+		} catch (Throwable e) {
+			result.completeExceptionally(e);
+		} finally {
+			RpcContext.removeContext();
+		}
+	}
+
+	/**
+	 * 设置回调, 保留原来的回调
+	 */
+	private static void chainCallback(ResponseFuture responseFuture, ChainedCallback callback) {
+		if(CALLBACK_FIELD != null && responseFuture instanceof DefaultFuture) {
+			try {
+				callback.original = (ResponseCallback) CALLBACK_FIELD.get(responseFuture);
+			} catch (IllegalAccessException e) {
+				// 不会发生
+			}
+		}
+		callback.chainingThread = Thread.currentThread();
+		try {
+			responseFuture.setCallback(callback);
+		} finally {
+			callback.chainingThread = null;
+		}
+	}
+
+	private static Field callbackField() {
+		try {
+			Field field = DefaultFuture.class.getDeclaredField("callback");
+			field.setAccessible(true);
+			return field;
+		} catch (Exception e) {
+			logger.warn("取不到DefaultFuture.callback, 本地异步调用会覆盖FutureFilter的回调(onreturn/onthrow)", e);
+			return null;
+		}
+	}
+
+	/**
+	 * 接着调用原来的回调
+	 * <p>
+	 * setCallback时Future已经完成的话, 回调在设置线程上立即执行, 这时原来的回调已经被DefaultFuture执行过了, 不再调用
+	 */
+	private abstract static class ChainedCallback implements ResponseCallback {
+
+		ResponseCallback original;
+
+		volatile Thread chainingThread;
+
+		void fireDone(Object response) {
+			if(this.shouldFire()) {
+				original.done(response);
+			}
+		}
+
+		void fireCaught(Throwable exception) {
+			if(this.shouldFire()) {
+				original.caught(exception);
+			}
+		}
+
+		private boolean shouldFire() {
+			return original != null && chainingThread != Thread.currentThread();
+		}
+
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return result.isDone();
+	}
+
+	@Override
+	public Object get() throws InterruptedException, ExecutionException {
+		return this.recreate(result.get());
+	}
+
+	@Override
+	public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		return this.recreate(result.get(timeout, unit));
+	}
+
+	/**
+	 * 同FutureAdapter, 业务异常包装成RpcException
+	 */
+	private Object recreate(Result response) {
+		try {
+			return (response == null? new RpcResult(): response).recreate();
+		} catch (Throwable e) {
+			throw new RpcException(e);
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.api.common.dubbo;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.common.URL;
+
+/**
+ * 本地/远程对冲请求策略, 按reference配置
+ * <p>
+ * 本地调用超过延迟(固定值或者这次所用本地路由的p95)还没有返回, 再向远程发一次请求, 取先成功的结果.
+ * 本地和远程请求都占用对冲线程池的线程, 线程池满了不做对冲, 在调用线程上直接调用.
+ * 只对声明为幂等的方法生效, 配置方式:
+ * <pre>
+ * &lt;dubbo:reference ...&gt;
+ *     &lt;dubbo:parameter key="local.hedge" value="true"/&gt;
+ *     &lt;dubbo:parameter key="local.hedge.methods" value="get,query"/&gt;  &lt;!-- *表示全部方法 --&gt;
+ *     &lt;dubbo:parameter key="local.hedge.delay" value="p95"/&gt;        &lt;!-- 毫秒(不小于0)或者p95, 格式错误时按p95 --&gt;
+ *     &lt;dubbo:parameter key="local.hedge.max" value="10"/&gt;          &lt;!-- 同时进行中的对冲请求上限 --&gt;
+ * &lt;/dubbo:reference&gt;
+ * </pre>
+ *
+ * @author sxt
+ */
+public class LocalHedgePolicy {
+
+	private static Logger logger = Logger.getLogger(LocalHedgePolicy.class);
+
+	public static final String HEDGE_KEY = "local.hedge";
+
+	public static final String HEDGE_METHODS_KEY = "local.hedge.methods";
+
+	public static final String HEDGE_DELAY_KEY = "local.hedge.delay";
+
+	public static final String HEDGE_MAX_KEY = "local.hedge.max";
+
+	private static final String DELAY_P95 = "p95";
+
+	// p95样本不足时使用的延迟
+	private static final long DEFAULT_DELAY = 50;
+
+	private static final int DEFAULT_MAX = 10;
+
+	// 整个进程的对冲线程上限, 本地卡顿时进行中的请求不会无限占用线程
+	private static final int HEDGE_THREADS = 200;
+
+	// 本地和远程请求都在这里执行, 调用线程只等待结果; 不排队, 满了抛RejectedExecutionException
+	static final ThreadPoolExecutor HEDGE_EXECUTOR = new ThreadPoolExecutor(0, HEDGE_THREADS, 60, TimeUnit.SECONDS, //
+			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+				private final AtomicInteger index = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "local-hedge-" + index.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final boolean enabled;
+
+	private final boolean allMethods;
+
+	private final Set<String> methods = new HashSet<String>();
+
+	// 固定延迟, 配置p95时为-1
+	private final long fixedDelay;
+
+	private final int maxHedges;
+
+	private final AtomicInteger inflightHedges = new AtomicInteger();
+
+	public LocalHedgePolicy(URL url) {
+		this.enabled = url.getParameter(HEDGE_KEY, false);
+		String methodNames = url.getParameter(HEDGE_METHODS_KEY, "");
+		this.allMethods = "*".equals(methodNames.trim());
+		for(String method : methodNames.split(",")) {
+			if(StringUtils.isNotBlank(method)) {
+				this.methods.add(method.trim());
+			}
+		}
+		this.fixedDelay = parseDelay(url.getParameter(HEDGE_DELAY_KEY, DELAY_P95).trim());
+		this.maxHedges = url.getParameter(HEDGE_MAX_KEY, DEFAULT_MAX);
+	}
+
+	/**
+	 * 配置错误不影响reference启动, 按p95处理
+	 */
+	private static long parseDelay(String delay) {
+		if(DELAY_P95.equalsIgnoreCase(delay)) {
+			return -1;
+		}
+		try {
+			long fixedDelay = Long.parseLong(delay);
+			if(fixedDelay >= 0) {
+				return fixedDelay;
+			}
+		} catch (NumberFormatException e) {
+			// 下面打印警告
+		}
+		logger.warn(HEDGE_DELAY_KEY + "配置错误: " + delay + ", 使用p95");
+		return -1;
+	}
+
+	/**
+	 * 方法是否做对冲
+	 */
+	public boolean isHedged(String methodName) {
+		return enabled && (allMethods || methods.contains(methodName));
+	}
+
+	/**
+	 * 等待本地结果的时间(毫秒)
+	 *
+	 * @param route 本地请求所用的路由, 还不知道时为null
+	 */
+	public long delay(LocalRoute route) {
+		if(fixedDelay >= 0) {
+			return fixedDelay;
+		}
+		long p95 = route == null? -1: route.getLatency().quantile();
+		return p95 < 0? DEFAULT_DELAY: p95;
+	}
+
+	/**
+	 * 超过上限返回false, 成功后必须调用release()
+	 */
+	public boolean tryAcquire() {
+		while(true) {
+			int current = inflightHedges.get();
+			if(current >= maxHedges) {
+				return false;
+			}
+			if(inflightHedges.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	public void release() {
+		inflightHedges.decrementAndGet();
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.api.common.dubbo;
+
+import java.lang.management.ManagementFactory;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 本机地址, 判断本机是否做服务注册/本地监听
+ *
+ * @author sxt
+ */
+public class LocalHostUtils {
+
+	private static Logger logger = Logger.getLogger(LocalHostUtils.class);
+
+	private static final int PID = resolvePid();
+
+	private LocalHostUtils() {
+	}
+
+	/**
+	 * 当前进程号, 区分同一台机器上同一个应用的多个实例; 取不到时用随机数代替
+	 */
+	public static int pid() {
+		return PID;
+	}
+
+	private static int resolvePid() {
+		// pid@hostname
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int index = name.indexOf('@');
+		try {
+			return Integer.parseInt(index > 0? name.substring(0, index): name);
+		} catch (NumberFormatException e) {
+			logger.warn("获取进程号失败: " + name + ", 使用随机数代替");
+			return (int) (Math.random() * Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * 本机所有启用网卡的IPv4地址, 不包括回环地址
+	 */
+	public static List<String> localAddresses() {
+		List<String> addresses = new ArrayList<String>();
+		try {
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+			while(interfaces != null && interfaces.hasMoreElements()) {
+				NetworkInterface network = interfaces.nextElement();
+				if(!network.isUp() || network.isLoopback()) {
+					continue ;
+				}
+				Enumeration<InetAddress> inetAddresses = network.getInetAddresses();
+				while(inetAddresses.hasMoreElements()) {
+					InetAddress address = inetAddresses.nextElement();
+					if(address instanceof Inet4Address && !address.isLoopbackAddress()) {
+						addresses.add(address.getHostAddress());
+					}
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("获取本机IP", e);
+		}
+		return addresses;
+	}
+
+}
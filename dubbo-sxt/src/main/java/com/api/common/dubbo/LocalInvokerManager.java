@@ -0,0 +1,652 @@
+package com.api.common.dubbo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.common.Constants;
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.extension.ExtensionLoader;
+import com.alibaba.dubbo.common.utils.NetUtils;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Protocol;
+
+/**
+ * 本地Invoker管理
+ * <p>
+ * 发现新的本地地址后在后台线程里refer并建立连接(同一个接口的每个本地地址都连接), 连接成功才交给注册表发布路由,
+ * 请求线程不会去连接本地provider. 连接失败按退避时间重试, 直到地址下线.
+ * 地址下线或端口变化时销毁Invoker; 空闲超过invokerIdleTimeout或数量超过maxInvokers时销毁最久未使用的,
+ * 之后再有请求时重新连接.
+ * 同一个进程中导出的服务走injvm协议(不序列化, 参数和返回值按引用传递), reference配置local.injvm=false时仍然走dubbo协议.
+ * 其他本地provider默认先连接127.0.0.1, 连不上(provider只绑定了局域网IP)再连接本机IP;
+ * reference配置local.shm=true且provider提供了共享内存通道时走共享内存(实验性).
+ * 每组配置相同(时间戳除外)的reference单独refer和熔断, 配置不同的reference互不影响; 最后一个reference销毁时销毁它的Invoker
+ *
+ * @author sxt
+ */
+public class LocalInvokerManager {
+
+	private Logger logger = Logger.getLogger(this.getClass());
+
+	private static final long MAX_RETRY_DELAY = 30000;
+
+	private static final long MAX_EVICT_INTERVAL = 30000;
+
+	public static final String INJVM_KEY = "local.injvm";
+
+	public static final String SHM_KEY = "local.shm";
+
+	private final String localHost = NetUtils.getLocalHost();
+
+	// interface[-group]?参数 : 订阅的reference, 配置相同的reference共用
+	private final ConcurrentHashMap<String, Consumer> consumers = new ConcurrentHashMap<String, Consumer>();
+
+	// interface[-group] : 订阅这个接口的reference, 整体替换
+	private final ConcurrentHashMap<String, List<Consumer>> consumersByInterface = new ConcurrentHashMap<String, List<Consumer>>();
+
+	// interface[-group]$port?参数 : 已经连接好的路由
+	private final ConcurrentHashMap<String, LocalRoute> routes = new ConcurrentHashMap<String, LocalRoute>();
+
+	// interface[-group]$port?参数 : 正在连接的地址
+	private final ConcurrentHashMap<String, LocalEndpoint> connecting = new ConcurrentHashMap<String, LocalEndpoint>();
+
+	// interface[-group]$port?参数 : 最近一次连接失败, 正在退避重试的地址
+	private final Set<String> failed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// interface[-group]$port?参数 : 空闲回收的地址, 有请求时再连接
+	private final Set<String> idle = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// interface[-group] : 当前生效的本地地址
+	private volatile Map<String, List<LocalEndpoint>> endpoints = new HashMap<String, List<LocalEndpoint>>();
+
+	// interface[-group]$port : 当前生效的本地地址
+	private volatile Map<String, LocalEndpoint> currentByLocalKey = new HashMap<String, LocalEndpoint>();
+
+	private final Listener listener;
+
+	private ScheduledExecutorService connector;
+
+	public LocalInvokerManager(Listener listener) {
+		this.listener = listener;
+	}
+
+	public synchronized void start() {
+		if(connector != null) {
+			return ;
+		}
+		this.connector = Executors.newScheduledThreadPool(1, new ThreadFactory() {
+
+			private final AtomicInteger index = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "local-invoker-connector-" + index.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long idleTimeout = DubboClientLocalListener.invokerIdleTimeout;
+		if(idleTimeout > 0) {
+			long interval = Math.min(MAX_EVICT_INTERVAL, idleTimeout);
+			this.connector.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					LocalInvokerManager.this.evictIdle();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * 停止连接线程, 销毁全部Invoker
+	 */
+	public synchronized void stop() {
+		if(connector == null) {
+			return ;
+		}
+		this.connector.shutdownNow();
+		this.connector = null;
+		this.endpoints = new HashMap<String, List<LocalEndpoint>>();
+		this.currentByLocalKey = new HashMap<String, LocalEndpoint>();
+		this.connecting.clear();
+		this.failed.clear();
+		this.idle.clear();
+		for(String localKey : routes.keySet()) {
+			this.destroy(localKey);
+		}
+	}
+
+	/**
+	 * reference的路由key: interface[-group]?参数, 配置相同(时间戳除外)的reference相同
+	 */
+	public static String referKey(String interfaceKey, URL url) {
+		return interfaceKey + "?" + url.removeParameter(Constants.TIMESTAMP_KEY).toParameterString();
+	}
+
+	/**
+	 * 一个本地地址给一组reference用的路由: interface[-group]$port?参数
+	 */
+	public static String routeKey(String localKey, String referKey) {
+		return localKey + referKey.substring(referKey.indexOf('?'));
+	}
+
+	/**
+	 * reference订阅本地地址, 已经有本地地址时立即开始连接
+	 *
+	 * @return 路由key, 用它查找路由表和取消订阅
+	 */
+	public synchronized String subscribe(String interfaceKey, Class<?> type, URL url) {
+		String referKey = referKey(interfaceKey, url);
+		Consumer consumer = consumers.get(referKey);
+		if(consumer != null) {
+			consumer.references++;
+			return referKey;
+		}
+		consumer = new Consumer(interfaceKey, referKey, type, url);
+		consumers.put(referKey, consumer);
+		List<Consumer> interfaceConsumers = consumersByInterface.get(interfaceKey);
+		interfaceConsumers = interfaceConsumers == null? new ArrayList<Consumer>(1): new ArrayList<Consumer>(interfaceConsumers);
+		interfaceConsumers.add(consumer);
+		consumersByInterface.put(interfaceKey, interfaceConsumers);
+		List<LocalEndpoint> interfaceEndpoints = endpoints.get(interfaceKey);
+		if(interfaceEndpoints != null) {
+			for(LocalEndpoint endpoint : interfaceEndpoints) {
+				this.connect(endpoint, consumer, 0);
+			}
+		}
+		return referKey;
+	}
+
+	/**
+	 * reference销毁时取消订阅, 配置相同的reference都销毁后销毁它们的本地Invoker
+	 *
+	 * @return 是否销毁了本地Invoker
+	 */
+	public boolean unsubscribe(String referKey) {
+		Consumer consumer;
+		synchronized (this) {
+			consumer = consumers.get(referKey);
+			if(consumer == null || --consumer.references > 0) {
+				return false;
+			}
+			consumers.remove(referKey);
+			List<Consumer> interfaceConsumers = new ArrayList<Consumer>(consumersByInterface.get(consumer.interfaceKey));
+			interfaceConsumers.remove(consumer);
+			if(interfaceConsumers.isEmpty()) {
+				consumersByInterface.remove(consumer.interfaceKey);
+			}
+			else {
+				consumersByInterface.put(consumer.interfaceKey, interfaceConsumers);
+			}
+		}
+		for(Iterator<String> it = connecting.keySet().iterator(); it.hasNext(); ) {
+			if(consumer.owns(it.next())) {
+				it.remove();
+			}
+		}
+		for(Iterator<String> it = idle.iterator(); it.hasNext(); ) {
+			if(consumer.owns(it.next())) {
+				it.remove();
+			}
+		}
+		for(Iterator<String> it = failed.iterator(); it.hasNext(); ) {
+			if(consumer.owns(it.next())) {
+				it.remove();
+			}
+		}
+		boolean destroyed = false;
+		for(String routeKey : routes.keySet()) {
+			if(consumer.owns(routeKey)) {
+				this.destroy(routeKey);
+				destroyed = true;
+			}
+		}
+		return destroyed;
+	}
+
+	/**
+	 * 本地地址变化: 连接新地址, 销毁已经下线的地址
+	 * <p>
+	 * 替换当前地址和摘掉过期路由在同一把锁内, doConnect也在这把锁内检查地址是否还有效再放入路由,
+	 * 刚下线的地址不会在摘路由之后又被连接线程放回去
+	 *
+	 * @param current interface[-group] : 当前生效的本地地址
+	 */
+	public void sync(Map<String, List<LocalEndpoint>> current) {
+		Map<String, LocalEndpoint> byLocalKey = new HashMap<String, LocalEndpoint>();
+		for(List<LocalEndpoint> interfaceEndpoints : current.values()) {
+			for(LocalEndpoint endpoint : interfaceEndpoints) {
+				byLocalKey.put(endpoint.getLocalKey(), endpoint);
+			}
+		}
+		List<LocalRoute> removed = new ArrayList<LocalRoute>();
+		synchronized (this) {
+			this.endpoints = current;
+			this.currentByLocalKey = byLocalKey;
+			for(Map.Entry<String, LocalRoute> entry : routes.entrySet()) {
+				LocalEndpoint endpoint = entry.getValue().getEndpoint();
+				// 已经下线, 或者同一个端口换了连接方式(通知文件 <-> 同进程)
+				if(!endpoint.sameRoute(byLocalKey.get(endpoint.getLocalKey())) && routes.remove(entry.getKey(), entry.getValue())) {
+					removed.add(entry.getValue());
+				}
+			}
+			for(Iterator<String> it = idle.iterator(); it.hasNext(); ) {
+				String routeKey = it.next();
+				if(!byLocalKey.containsKey(routeKey.substring(0, routeKey.indexOf('?')))) {
+					it.remove();
+				}
+			}
+		}
+		for(LocalRoute route : removed) {
+			this.release(route);
+		}
+		for(LocalEndpoint endpoint : byLocalKey.values()) {
+			List<Consumer> interfaceConsumers = consumersByInterface.get(endpoint.getInterfaceKey());
+			if(interfaceConsumers == null) {
+				continue ;
+			}
+			for(Consumer consumer : interfaceConsumers) {
+				String routeKey = consumer.routeKey(endpoint);
+				if(!routes.containsKey(routeKey) && !idle.contains(routeKey)) {
+					this.connect(endpoint, consumer, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 这组reference有被回收(空闲超时或者超过最大数量)的本地地址时, 逐个重新连接; 请求线程只做判断不等待连接
+	 */
+	public void reconnectIfIdle(String referKey) {
+		if(idle.isEmpty()) {
+			return ;
+		}
+		Consumer consumer = consumers.get(referKey);
+		if(consumer == null) {
+			return ;
+		}
+		List<LocalEndpoint> interfaceEndpoints = endpoints.get(consumer.interfaceKey);
+		if(interfaceEndpoints == null) {
+			return ;
+		}
+		for(LocalEndpoint endpoint : interfaceEndpoints) {
+			if(idle.remove(consumer.routeKey(endpoint))) {
+				logger.info("本地provider【" + endpoint.getLocalKey() + "】有新请求, 重新连接");
+				this.connect(endpoint, consumer, 0);
+			}
+		}
+	}
+
+	/**
+	 * interface[-group]$port?参数 : 已经连接好的路由
+	 */
+	public Map<String, LocalRoute> getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * 当前订阅的reference的路由key
+	 */
+	public Set<String> getReferKeys() {
+		return consumers.keySet();
+	}
+
+	/**
+	 * 可用的本地连接数
+	 */
+	public int getLiveCount() {
+		int live = 0;
+		for(LocalRoute route : routes.values()) {
+			if(route.getInvoker().isAvailable()) {
+				live++;
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * 这组reference是否还有正在进行的首次连接(失败后退避重试的不算), 或者已经连接好还没有发布的路由
+	 */
+	public boolean isConnecting(String referKey) {
+		Consumer consumer = consumers.get(referKey);
+		if(consumer == null) {
+			return false;
+		}
+		for(String routeKey : connecting.keySet()) {
+			if(consumer.owns(routeKey) && !failed.contains(routeKey)) {
+				return true;
+			}
+		}
+		for(String routeKey : routes.keySet()) {
+			if(consumer.owns(routeKey)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getConnectingCount() {
+		return connecting.size();
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * 销毁本地Invoker, 停止熔断探测
+	 *
+	 * @param routeKey interface[-group]$port?参数
+	 */
+	public void destroy(String routeKey) {
+		LocalRoute route = routes.remove(routeKey);
+		if(route != null) {
+			this.release(route);
+		}
+	}
+
+	/**
+	 * 已经从路由中移除的Invoker, 在锁外销毁
+	 */
+	private void release(LocalRoute route) {
+		String localKey = route.getEndpoint().getLocalKey();
+		route.getBreaker().dispose();
+		try {
+			route.getInvoker().destroy();
+		} catch (Exception e) {
+			logger.warn("销毁本地Invoker【" + localKey + "】", e);
+		}
+		logger.info("销毁本地Invoker【" + localKey + "】");
+	}
+
+	private void connect(final LocalEndpoint endpoint, final Consumer consumer, final long delay) {
+		ScheduledExecutorService executor = this.connector;
+		if(executor == null || consumers.get(consumer.referKey) != consumer) {
+			// 已经停止或者reference已经销毁
+			return ;
+		}
+		if(delay == 0 && connecting.putIfAbsent(consumer.routeKey(endpoint), endpoint) != null) {
+			return ;
+		}
+		executor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				LocalInvokerManager.this.doConnect(endpoint, consumer, delay);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void doConnect(LocalEndpoint endpoint, Consumer consumer, long delay) {
+		String localKey = endpoint.getLocalKey();
+		String routeKey = consumer.routeKey(endpoint);
+		if(consumers.get(consumer.referKey) != consumer) {
+			connecting.remove(routeKey, endpoint);
+			failed.remove(routeKey);
+			return ;
+		}
+		if(!this.isCurrent(endpoint)) {
+			this.abandon(endpoint, consumer);
+			return ;
+		}
+		Invoker<Object> invoker = null;
+		try {
+			if(endpoint.isInJvm() && consumer.url.getParameter(INJVM_KEY, true)) {
+				invoker = this.referInJvm(localKey, consumer);
+			}
+			if(invoker == null && consumer.url.getParameter(SHM_KEY, false)) {
+				invoker = this.referSharedMemory(localKey, endpoint, consumer);
+			}
+			if(invoker == null) {
+				invoker = this.referDubbo(endpoint, consumer);
+			}
+		} catch (Exception e) {
+			if(invoker != null) {
+				invoker.destroy();
+			}
+			long next = Math.min(MAX_RETRY_DELAY, delay == 0? 1000: delay * 2);
+			logger.warn("连接本地provider【" + localKey + "】失败, " + next + "ms后重试: " + e.getMessage());
+			failed.add(routeKey);
+			this.connect(endpoint, consumer, next);
+			listener.onConnectFailed();
+			return ;
+		}
+		LocalCircuitBreaker breaker = new LocalCircuitBreaker(localKey, invoker.getUrl().getHost(), endpoint.getPort(), consumer.url);
+		LocalLoadStats load = new LocalLoadStats();
+		LocalRoute route = new LocalRoute(endpoint, new LocalBreakerInvoker<Object>(invoker, breaker, load), breaker, load);
+		synchronized (this) {
+			connecting.remove(routeKey);
+			failed.remove(routeKey);
+			// 连接期间地址可能已经下线, 或者reference已经销毁
+			if(connector == null || !this.isCurrent(endpoint) || consumers.get(consumer.referKey) != consumer) {
+				breaker.dispose();
+				invoker.destroy();
+				this.abandon(endpoint, consumer);
+				return ;
+			}
+			routes.put(routeKey, route);
+		}
+		logger.info("本地provider【" + localKey + "】连接成功");
+		this.evictOverflow();
+		listener.onRoutesChanged();
+	}
+
+	/**
+	 * 销毁空闲超时的Invoker
+	 */
+	private void evictIdle() {
+		long deadline = System.currentTimeMillis() - DubboClientLocalListener.invokerIdleTimeout;
+		boolean evicted = false;
+		for(Map.Entry<String, LocalRoute> entry : routes.entrySet()) {
+			if(entry.getValue().getLastAccess() < deadline) {
+				evicted |= this.evict(entry.getKey(), entry.getValue(), "空闲超时");
+			}
+		}
+		if(evicted) {
+			logger.info(this.toString());
+			listener.onRoutesChanged();
+		}
+	}
+
+	/**
+	 * 数量超过上限时销毁最久未使用的Invoker
+	 */
+	private void evictOverflow() {
+		int overflow = routes.size() - DubboClientLocalListener.maxInvokers;
+		if(overflow <= 0) {
+			return ;
+		}
+		List<Map.Entry<String, LocalRoute>> lru = new ArrayList<Map.Entry<String, LocalRoute>>(routes.entrySet());
+		Collections.sort(lru, new Comparator<Map.Entry<String, LocalRoute>>() {
+
+			@Override
+			public int compare(Map.Entry<String, LocalRoute> o1, Map.Entry<String, LocalRoute> o2) {
+				return Long.compare(o1.getValue().getLastAccess(), o2.getValue().getLastAccess());
+			}
+		});
+		for(int i = 0; i < overflow && i < lru.size(); i++) {
+			this.evict(lru.get(i).getKey(), lru.get(i).getValue(), "超过最大数量" + DubboClientLocalListener.maxInvokers);
+		}
+		logger.info(this.toString());
+	}
+
+	private boolean evict(String routeKey, LocalRoute route, String reason) {
+		synchronized (this) {
+			if(routes.get(routeKey) != route) {
+				return false;
+			}
+			idle.add(routeKey);
+		}
+		logger.info("回收本地Invoker【" + route.getEndpoint().getLocalKey() + "】: " + reason);
+		this.destroy(routeKey);
+		return true;
+	}
+
+	/**
+	 * 依次尝试连接本地地址, 全部失败时抛出最后一次的异常
+	 */
+	@SuppressWarnings("unchecked")
+	private Invoker<Object> referDubbo(LocalEndpoint endpoint, Consumer consumer) {
+		Protocol protocol = ExtensionLoader.getExtensionLoader(Protocol.class).getExtension("dubbo");
+		RuntimeException failure = null;
+		for(String host : this.candidateHosts()) {
+			Invoker<Object> invoker = null;
+			try {
+				URL url = consumer.url.setProtocol("dubbo").setPath(consumer.type.getName()) //
+						.setHost(host).setPort(endpoint.getPort()) // 本地url
+						.removeParameter(Constants.LAZY_CONNECT_KEY) //
+						.addParameter(Constants.CONNECT_TIMEOUT_KEY, DubboClientLocalListener.connectTimeout);
+				invoker = (Invoker<Object>) protocol.refer(consumer.type, url);
+				if(invoker.isAvailable()) {
+					return invoker;
+				}
+				failure = new IllegalStateException("本地provider不可用: " + host);
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+			if(invoker != null) {
+				invoker.destroy();
+			}
+		}
+		throw failure;
+	}
+
+	/**
+	 * 回环地址不经过网卡, 优先使用
+	 */
+	private List<String> candidateHosts() {
+		if(DubboClientLocalListener.preferLoopback && !NetUtils.LOCALHOST.equals(localHost)) {
+			return Arrays.asList(NetUtils.LOCALHOST, localHost);
+		}
+		return Collections.singletonList(localHost);
+	}
+
+	/**
+	 * 同进程导出的服务用injvm协议引用, 没有injvm导出(scope=remote)时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	private Invoker<Object> referInJvm(String localKey, Consumer consumer) {
+		Protocol protocol = ExtensionLoader.getExtensionLoader(Protocol.class).getExtension(Constants.LOCAL_PROTOCOL);
+		URL url = consumer.url.setProtocol(Constants.LOCAL_PROTOCOL).setPath(consumer.type.getName()) //
+				.setHost(NetUtils.LOCALHOST).setPort(0);
+		Invoker<Object> invoker = (Invoker<Object>) protocol.refer(consumer.type, url);
+		if(invoker.isAvailable()) {
+			logger.info("本地provider【" + localKey + "】在同一个进程中, 使用injvm协议");
+			return invoker;
+		}
+		invoker.destroy();
+		logger.info("本地provider【" + localKey + "】在同一个进程中, 但没有injvm导出, 使用dubbo协议");
+		return null;
+	}
+
+	/**
+	 * provider没有提供共享内存通道(或者被其他consumer进程占用)时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	private Invoker<Object> referSharedMemory(String localKey, LocalEndpoint endpoint, Consumer consumer) throws IOException {
+		URL url = consumer.url.setProtocol("shm").setPath(consumer.type.getName()) //
+				.setHost(NetUtils.LOCALHOST).setPort(endpoint.getPort());
+		Invoker<Object> invoker = (Invoker<Object>) SharedMemoryInvoker.open(consumer.type, url, DubboClientLocalListener.notifyFilePath, endpoint.getPort());
+		if(invoker == null) {
+			logger.info("本地provider【" + localKey + "】没有可用的共享内存通道, 使用dubbo协议");
+			return null;
+		}
+		logger.info("本地provider【" + localKey + "】使用共享内存通道");
+		return invoker;
+	}
+
+	private boolean isCurrent(LocalEndpoint endpoint) {
+		return endpoint.sameRoute(currentByLocalKey.get(endpoint.getLocalKey()));
+	}
+
+	/**
+	 * 放弃已经过期的连接; 同一个端口只是换了连接方式时, 按当前地址重新连接
+	 */
+	private void abandon(LocalEndpoint endpoint, Consumer consumer) {
+		String routeKey = consumer.routeKey(endpoint);
+		connecting.remove(routeKey);
+		failed.remove(routeKey);
+		LocalEndpoint current = currentByLocalKey.get(endpoint.getLocalKey());
+		if(current != null && !routes.containsKey(routeKey)) {
+			this.connect(current, consumer, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "本地Invoker: 已连接" + routes.size() + ", 可用" + this.getLiveCount() //
+				+ ", 连接中" + connecting.size() + ", 空闲回收" + idle.size();
+	}
+
+	public interface Listener {
+
+		/**
+		 * 有新的本地路由连接成功
+		 */
+		void onRoutesChanged();
+
+		/**
+		 * 一次连接失败, 之后在后台退避重试
+		 */
+		void onConnectFailed();
+
+	}
+
+	private static class Consumer {
+
+		final String interfaceKey;
+
+		final String referKey;
+
+		// ?参数, 接在interface[-group]$port后面就是这组reference的路由key
+		final String query;
+
+		final Class<?> type;
+
+		final URL url;
+
+		// 配置相同的reference个数, 修改时持有LocalInvokerManager的锁
+		int references = 1;
+
+		Consumer(String interfaceKey, String referKey, Class<?> type, URL url) {
+			this.interfaceKey = interfaceKey;
+			this.referKey = referKey;
+			this.query = referKey.substring(interfaceKey.length());
+			this.type = type;
+			this.url = url;
+		}
+
+		String routeKey(LocalEndpoint endpoint) {
+			return endpoint.getLocalKey() + query;
+		}
+
+		/**
+		 * interface[-group]$port?参数是不是这组reference的路由
+		 */
+		boolean owns(String routeKey) {
+			int index = routeKey.indexOf('?');
+			return index > interfaceKey.length() && routeKey.startsWith(interfaceKey) //
+					&& routeKey.lastIndexOf(LocalEndpoint.PORT_SEPARATOR, index) == interfaceKey.length() //
+					&& routeKey.substring(index).equals(query);
+		}
+
+	}
+
+}
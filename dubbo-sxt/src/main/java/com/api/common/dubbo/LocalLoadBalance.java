@@ -0,0 +1,106 @@
+package com.api.common.dubbo;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.alibaba.dubbo.common.URL;
+
+/**
+ * 本地路由的负载均衡, 每个reference一个
+ * <p>
+ * 同一个接口有多个本地provider(多个应用或者同一个应用的多个端口)时, 选负载(LocalLoadStats)最低的, 熔断中的跳过.
+ * 可选配置:
+ * <pre>
+ * &lt;dubbo:reference ...&gt;
+ *     &lt;dubbo:parameter key="local.weight" value="30"/&gt;             &lt;!-- 只有30%的请求走本地, 其余走远程, 默认100 --&gt;
+ *     &lt;dubbo:parameter key="local.balance.remote" value="true"/&gt;   &lt;!-- 远程集群也参与比较, 进行中请求数按远程invoker数量平摊 --&gt;
+ * &lt;/dubbo:reference&gt;
+ * </pre>
+ * 选中远程后由实际的cluster invoker按reference配置的loadbalance选择远程invoker
+ *
+ * @author sxt
+ */
+public class LocalLoadBalance {
+
+	public static final String WEIGHT_KEY = "local.weight";
+
+	public static final String BALANCE_REMOTE_KEY = "local.balance.remote";
+
+	// 走本地的百分比
+	private final int weight;
+
+	private final boolean balanceRemote;
+
+	// 整个远程集群的负载
+	private final LocalLoadStats remoteLoad = new LocalLoadStats();
+
+	public LocalLoadBalance(URL url) {
+		this.weight = Math.max(0, Math.min(100, url.getParameter(WEIGHT_KEY, 100)));
+		this.balanceRemote = url.getParameter(BALANCE_REMOTE_KEY, false);
+	}
+
+	/**
+	 * 按local.weight分流, false时这次请求直接走远程
+	 */
+	public boolean routeLocal() {
+		return weight >= 100 || (weight > 0 && ThreadLocalRandom.current().nextInt(100) < weight);
+	}
+
+	/**
+	 * 是否需要统计远程的负载
+	 */
+	public boolean isTrackRemote() {
+		return balanceRemote;
+	}
+
+	/**
+	 * 选择负载最低的本地路由, 熔断中的本地路由跳过; 远程负载更低或者本地全部熔断时返回null
+	 *
+	 * @param routes 已经连接好的本地路由
+	 * @param remoteCount 远程invoker数量, 远程不参与比较时传0
+	 */
+	public LocalRoute select(List<LocalRoute> routes, int remoteCount) {
+		int size = routes.size();
+		if(size == 1 && remoteCount == 0) {
+			LocalRoute route = routes.get(0);
+			return route.getBreaker().allowRequest()? route: null;
+		}
+		double remote = remoteCount > 0? remoteLoad.load(remoteCount): Double.MAX_VALUE;
+		// 负载相同时从随机位置开始, 不总是选第一个
+		int offset = ThreadLocalRandom.current().nextInt(size);
+		boolean[] rejected = null;
+		for(int attempt = 0; attempt < size; attempt++) {
+			int best = -1;
+			double bestLoad = remote;
+			for(int i = 0; i < size; i++) {
+				int index = (offset + i) % size;
+				if(rejected != null && rejected[index]) {
+					continue ;
+				}
+				double load = routes.get(index).getLoad().load();
+				if(load <= bestLoad) {
+					best = index;
+					bestLoad = load;
+				}
+			}
+			if(best < 0) {
+				return null;
+			}
+			// 半开状态的熔断器每次判断都会占用一个探测名额, 只判断选中的
+			LocalRoute route = routes.get(best);
+			if(route.getBreaker().allowRequest()) {
+				return route;
+			}
+			if(rejected == null) {
+				rejected = new boolean[size];
+			}
+			rejected[best] = true;
+		}
+		return null;
+	}
+
+	public LocalLoadStats getRemoteLoad() {
+		return remoteLoad;
+	}
+
+}
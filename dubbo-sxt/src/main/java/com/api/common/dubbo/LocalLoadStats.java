@@ -0,0 +1,108 @@
+package com.api.common.dubbo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个调用目标(本地路由或者整个远程集群)的负载: peak-EWMA耗时 + 进行中的请求数
+ * <p>
+ * 新的耗时高于当前值时直接取新值(峰值), 低于时按距离上一次样本的时间衰减平滑;
+ * 读取时同样按时间衰减, 变慢过的目标一段时间没有请求后会重新分到流量.
+ * 负载 = 耗时 * (进行中请求数 + 1).
+ * 每次本地调用结束都会更新, 耗时和时间打包在一个long里CAS更新, 不加锁
+ *
+ * @author sxt
+ */
+public class LocalLoadStats {
+
+	// 衰减时间常数(毫秒)
+	private static final double DECAY_MILLIS = 10 * 1000.0;
+
+	// 还没有样本但已经有请求在进行中(比如刚连接上第一个请求就卡住), 先不给它更多请求
+	private static final double PENALTY = Long.MAX_VALUE >> 16;
+
+	private final AtomicInteger inflight = new AtomicInteger();
+
+	// 高32位: 耗时(纳秒, float); 低32位: 最近一次样本的时间(毫秒, 只取低32位, 按差值比较)
+	private final AtomicLong state = new AtomicLong(pack(0, millis(System.nanoTime())));
+
+	/**
+	 * 请求开始, 返回开始时间传给end()
+	 */
+	public long start() {
+		inflight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	public void end(long start) {
+		long now = System.nanoTime();
+		inflight.decrementAndGet();
+		this.observe(millis(now), now - start);
+	}
+
+	private void observe(int now, long rtt) {
+		for(;;) {
+			long current = state.get();
+			double ewma = ewma(current);
+			int stamp = stamp(current);
+			// 其他线程已经写入了更晚的样本时, 不衰减也不回退时间
+			int age = now - stamp;
+			double next;
+			if(rtt > ewma) {
+				next = rtt;
+			}
+			else {
+				double w = Math.exp(-Math.max(0, age) / DECAY_MILLIS);
+				next = ewma * w + rtt * (1 - w);
+			}
+			if(state.compareAndSet(current, pack(next, age > 0? now: stamp))) {
+				return ;
+			}
+		}
+	}
+
+	public double load() {
+		return this.load(1);
+	}
+
+	/**
+	 * @param targets 请求平摊到多少个目标上(远程集群的invoker数量)
+	 */
+	public double load(int targets) {
+		int pending = inflight.get();
+		long current = state.get();
+		double decayed = ewma(current) * Math.exp(-Math.max(0, millis(System.nanoTime()) - stamp(current)) / DECAY_MILLIS);
+		if(decayed == 0 && pending > 0) {
+			return PENALTY + pending;
+		}
+		return decayed * ((double) pending / targets + 1);
+	}
+
+	public int getInflight() {
+		return inflight.get();
+	}
+
+	/**
+	 * 衰减前的耗时(毫秒)
+	 */
+	public double getEwmaMillis() {
+		return ewma(state.get()) / 1000000;
+	}
+
+	private static int millis(long nanos) {
+		return (int) (nanos / 1000000);
+	}
+
+	private static long pack(double ewma, int stamp) {
+		return (long) Float.floatToRawIntBits((float) ewma) << 32 | (stamp & 0xFFFFFFFFL);
+	}
+
+	private static double ewma(long state) {
+		return Float.intBitsToFloat((int) (state >>> 32));
+	}
+
+	private static int stamp(long state) {
+		return (int) state;
+	}
+
+}
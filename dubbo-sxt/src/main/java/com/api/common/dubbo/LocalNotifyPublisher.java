@@ -0,0 +1,347 @@
+package com.api.common.dubbo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.common.Constants;
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Exporter;
+
+/**
+ * provider端发布本地通知, 由DubboProviderRegisteBarrier激活
+ * <p>
+ * 每个服务导出完成(LocalExporterListener)时增量发布, 取消导出时删除, 容器关闭时删除本应用的全部记录.
+ * properties格式每个应用实例一个文件: 应用名@pid.properties, 先写临时文件再原子rename, consumer不会读到不完整的文件;
+ * 同一台机器上同一个应用的多个实例各写各的文件, 关闭时只删除自己的; mapped格式整体替换本实例的记录.
+ * 后台每leaseRenewInterval续约一次: properties格式更新 应用名@pid.lease 的修改时间, mapped格式更新记录的updateTime;
+ * 进程被kill -9后不再续约, consumer在租约过期后删除这些记录, 同一个应用下一次启动时删除这些文件
+ *
+ * @author sxt
+ */
+public class LocalNotifyPublisher {
+
+	private static Logger logger = Logger.getLogger(LocalNotifyPublisher.class);
+
+	public static final String NOTIFY_SUFFIX = ".properties";
+
+	// 写入中的临时文件, consumer忽略
+	public static final String TEMP_SUFFIX = ".tmp";
+
+	// 租约文件, 修改时间就是最近一次续约的时间
+	public static final String LEASE_SUFFIX = ".lease";
+
+	// 同一个应用其他实例的租约超过这个时间没有更新, 启动时删除它留下的文件(同MappedRegistryFile的过期slot)
+	private static final long STALE_FILE_MILLIS = 60 * 1000;
+
+	private static volatile LocalNotifyPublisher active;
+
+	private final String dirPath;
+
+	private final boolean sharedMemory;
+
+	private final int sharedMemoryCapacity;
+
+	private final int sharedMemoryThreads;
+
+	// 应用名 : (interface[-group]$port : group/interface:version)
+	private final Map<String, Map<String, String>> entries = new HashMap<String, Map<String, String>>();
+
+	// 应用名 : 上次发布的文件修改时间
+	private final Map<String, Long> lastModified = new HashMap<String, Long>();
+
+	// port : 这个publisher启动(引用)的共享内存通道, 关闭时只释放这些
+	private final Map<Integer, SharedMemoryServer> sharedMemoryServers = new HashMap<Integer, SharedMemoryServer>();
+
+	private final ScheduledExecutorService leaseRenewer;
+
+	// registryFormat=mapped时使用, 整个publisher共用一个映射
+	private final MappedRegistryFile mappedRegistry;
+
+	private boolean closed = false;
+
+	/**
+	 * @param leaseRenewInterval 续约间隔(毫秒)
+	 */
+	public LocalNotifyPublisher(String dirPath, String registryFormat, boolean sharedMemory, int sharedMemoryCapacity, int sharedMemoryThreads, long leaseRenewInterval) {
+		this.dirPath = dirPath;
+		this.sharedMemory = sharedMemory;
+		this.sharedMemoryCapacity = sharedMemoryCapacity;
+		this.sharedMemoryThreads = sharedMemoryThreads;
+		this.mappedRegistry = DubboClientLocalListener.REGISTRY_FORMAT_MAPPED.equals(registryFormat)? new MappedRegistryFile(dirPath): null;
+		if(leaseRenewInterval <= 0) {
+			throw new IllegalArgumentException("leaseRenewInterval必须大于0: " + leaseRenewInterval);
+		}
+		this.leaseRenewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "local-notify-lease");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.leaseRenewer.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				LocalNotifyPublisher.this.renew();
+			}
+		}, leaseRenewInterval, leaseRenewInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 之后导出的服务由这个publisher发布
+	 */
+	public static void activate(LocalNotifyPublisher publisher) {
+		active = publisher;
+	}
+
+	public static LocalNotifyPublisher getActive() {
+		return active;
+	}
+
+	/**
+	 * 服务导出完成, 通知中的记录就是就绪标记
+	 */
+	public synchronized void exported(Exporter<?> exporter) {
+		URL url = exporter.getInvoker().getUrl();
+		if(closed || !Constants.DEFAULT_PROTOCOL.equals(url.getProtocol())) {
+			return ;
+		}
+		String app = url.getParameter(Constants.APPLICATION_KEY, "unknown");
+		String interfaceName = url.getParameter(Constants.INTERFACE_KEY, url.getPath());
+		String group = url.getParameter(Constants.GROUP_KEY);
+		String localKey = LocalEndpoint.localKey(interfaceName, group, url.getPort());
+		String serviceKey = SharedMemoryChannel.serviceKey(interfaceName, group, url.getParameter(Constants.VERSION_KEY));
+		// 同一个进程中的reference直接走injvm
+		LocalProviderRegistry.getInstance().exportInJvm(Collections.singleton(localKey));
+		if(sharedMemory) {
+			this.exportSharedMemory(url.getPort(), serviceKey, exporter);
+		}
+		Map<String, String> appEntries = entries.get(app);
+		if(appEntries == null) {
+			appEntries = new TreeMap<String, String>();
+			entries.put(app, appEntries);
+			this.deleteHistory(app);
+		}
+		appEntries.put(localKey, serviceKey);
+		this.publish(app);
+		logger.info("发布本地通知: " + localKey);
+	}
+
+	/**
+	 * 服务取消导出, 删除记录
+	 */
+	public synchronized void unexported(Exporter<?> exporter) {
+		URL url = exporter.getInvoker().getUrl();
+		if(closed || !Constants.DEFAULT_PROTOCOL.equals(url.getProtocol())) {
+			return ;
+		}
+		String app = url.getParameter(Constants.APPLICATION_KEY, "unknown");
+		String interfaceName = url.getParameter(Constants.INTERFACE_KEY, url.getPath());
+		String group = url.getParameter(Constants.GROUP_KEY);
+		String localKey = LocalEndpoint.localKey(interfaceName, group, url.getPort());
+		LocalProviderRegistry.getInstance().unexportInJvm(localKey);
+		Map<String, String> appEntries = entries.get(app);
+		if(appEntries == null || appEntries.remove(localKey) == null) {
+			return ;
+		}
+		SharedMemoryServer server = sharedMemoryServers.get(url.getPort());
+		if(server != null) {
+			server.unexport(SharedMemoryChannel.serviceKey(interfaceName, group, url.getParameter(Constants.VERSION_KEY)));
+		}
+		this.publish(app);
+		logger.info("删除本地通知: " + localKey);
+	}
+
+	/**
+	 * 容器关闭, 在服务取消导出之前删除全部记录, consumer先切回远程
+	 */
+	public synchronized void close() {
+		if(closed) {
+			return ;
+		}
+		this.closed = true;
+		if(active == this) {
+			active = null;
+		}
+		this.leaseRenewer.shutdownNow();
+		for(String app : entries.keySet()) {
+			for(String localKey : entries.get(app).keySet()) {
+				LocalProviderRegistry.getInstance().unexportInJvm(localKey);
+			}
+			entries.get(app).clear();
+			this.publish(app);
+		}
+		entries.clear();
+		if(mappedRegistry != null) {
+			mappedRegistry.close();
+		}
+		for(SharedMemoryServer server : sharedMemoryServers.values()) {
+			SharedMemoryServer.release(server);
+		}
+		sharedMemoryServers.clear();
+		logger.info("删除全部本地通知");
+	}
+
+	private void exportSharedMemory(int port, String serviceKey, Exporter<?> exporter) {
+		try {
+			SharedMemoryServer server = sharedMemoryServers.get(port);
+			if(server == null) {
+				server = SharedMemoryServer.start(dirPath, port, sharedMemoryCapacity, sharedMemoryThreads);
+				sharedMemoryServers.put(port, server);
+			}
+			server.export(serviceKey, exporter.getInvoker());
+		} catch (IOException e) {
+			logger.error("启动共享内存通道: " + serviceKey, e);
+		}
+	}
+
+	/**
+	 * 续约本进程全部应用的记录
+	 */
+	private synchronized void renew() {
+		for(Map.Entry<String, Map<String, String>> entry : entries.entrySet()) {
+			if(closed || entry.getValue().isEmpty()) {
+				continue ;
+			}
+			try {
+				if(mappedRegistry != null) {
+					mappedRegistry.renew(entry.getKey(), LocalHostUtils.pid());
+				}
+				else {
+					this.touchLease(entry.getKey());
+				}
+			} catch (Exception e) {
+				logger.error("本地通知续约: " + entry.getKey(), e);
+			}
+		}
+	}
+
+	/**
+	 * 通知文件对应的租约文件名: 应用名@pid.properties -> 应用名@pid.lease
+	 */
+	public static String leaseFileName(String notifyFileName) {
+		return notifyFileName.substring(0, notifyFileName.length() - NOTIFY_SUFFIX.length()) + LEASE_SUFFIX;
+	}
+
+	/**
+	 * 本实例的文件名前缀: 应用名@pid
+	 */
+	private static String instance(String app) {
+		return MappedRegistryFile.instance(app, LocalHostUtils.pid());
+	}
+
+	private void touchLease(String app) throws IOException {
+		File lease = new File(dirPath, instance(app) + LEASE_SUFFIX);
+		if(!lease.exists()) {
+			lease.createNewFile();
+		}
+		lease.setLastModified(System.currentTimeMillis());
+		if(!new File(dirPath, instance(app) + NOTIFY_SUFFIX).exists()) {
+			// 被误删(比如长时间停顿被当成已经退出的实例)时重新发布
+			logger.warn("本地通知文件不存在, 重新发布: " + instance(app));
+			this.writeProperties(app, entries.get(app));
+		}
+	}
+
+	private void publish(String app) {
+		Map<String, String> appEntries = entries.get(app);
+		try {
+			if(mappedRegistry != null) {
+				mappedRegistry.publish(app, LocalHostUtils.pid(), appEntries.keySet());
+			}
+			else {
+				this.writeProperties(app, appEntries);
+			}
+		} catch (Exception e) {
+			logger.error("保存本地通知: " + app, e);
+		}
+	}
+
+	/**
+	 * 先写临时文件再rename, 没有记录时删除文件
+	 */
+	private void writeProperties(String app, Map<String, String> appEntries) throws IOException {
+		File target = new File(dirPath, instance(app) + NOTIFY_SUFFIX);
+		File lease = new File(dirPath, instance(app) + LEASE_SUFFIX);
+		if(appEntries.isEmpty()) {
+			Files.deleteIfExists(target.toPath());
+			Files.deleteIfExists(lease.toPath());
+			return ;
+		}
+		// 租约先于记录可见
+		if(!lease.exists()) {
+			lease.createNewFile();
+		}
+		lease.setLastModified(System.currentTimeMillis());
+		File temp = new File(dirPath, instance(app) + NOTIFY_SUFFIX + TEMP_SUFFIX);
+		Properties prop = new Properties();
+		prop.putAll(appEntries);
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			prop.store(out, "");
+		} finally {
+			out.close();
+		}
+		// consumer按修改时间判断文件是否变化, 同一毫秒内连续发布时也要递增
+		Long last = lastModified.get(app);
+		long modified = Math.max(System.currentTimeMillis(), last == null? 0: last + 1);
+		temp.setLastModified(modified);
+		lastModified.put(app, modified);
+		try {
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * 删除旧版本留下的 应用名-时间戳.properties;
+	 * 以及同一个应用已经退出的实例留下的 应用名[@pid].properties/.lease(租约超过STALE_FILE_MILLIS没有更新), 运行中的实例不受影响
+	 */
+	private void deleteHistory(final String app) {
+		final Pattern legacy = Pattern.compile(Pattern.quote(app) + "-\\d+" + Pattern.quote(NOTIFY_SUFFIX));
+		final Pattern instance = Pattern.compile(Pattern.quote(app) + "(@\\d+)?" + Pattern.quote(NOTIFY_SUFFIX));
+		final String self = instance(app) + NOTIFY_SUFFIX;
+		final long staleBefore = System.currentTimeMillis() - STALE_FILE_MILLIS;
+		File[] files = new File(dirPath).listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				if(legacy.matcher(name).matches()) {
+					return true;
+				}
+				return instance.matcher(name).matches() && !name.equals(self) //
+						&& new File(dir, leaseFileName(name)).lastModified() < staleBefore;
+			}
+		});
+		if(files == null) {
+			return ;
+		}
+		for(File file : files) {
+			file.delete();
+			new File(dirPath, leaseFileName(file.getName())).delete();
+			logger.info("删除已经退出的实例留下的本地通知: " + file.getName());
+		}
+	}
+
+}
@@ -0,0 +1,640 @@
+package com.api.common.dubbo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.common.URL;
+
+/**
+ * 进程内唯一的本地provider注册表
+ * <p>
+ * 所有LocalCluster共用一个监听线程(daemon)、一份路由快照和一份本地Invoker缓存,
+ * 由DubboClientLocalListener随spring容器启动/关闭
+ *
+ * @author sxt
+ */
+public class LocalProviderRegistry {
+
+	private static final LocalProviderRegistry INSTANCE = new LocalProviderRegistry();
+
+	// 注册文件中的记录来源: registry.dat#应用名@pid
+	static final String MAPPED_SOURCE_PREFIX = MappedRegistryFile.FILE_NAME + "#";
+
+	// 同进程的lastModified是Long.MAX_VALUE, 排在最前面
+	private static final Comparator<LocalEndpoint> NEWEST_FIRST = new Comparator<LocalEndpoint>() {
+
+		@Override
+		public int compare(LocalEndpoint o1, LocalEndpoint o2) {
+			return Long.compare(o2.getLastModified(), o1.getLastModified());
+		}
+	};
+
+	private Logger logger = Logger.getLogger(this.getClass());
+
+	// file name : FileContent
+	private ConcurrentHashMap<String, FileContent> cacheLocalProviders = new ConcurrentHashMap<String,  FileContent>(30);
+
+	// interface[-group]$port : 同一个进程中导出的服务, 由DubboProviderRegisteBarrier登记
+	private final ConcurrentHashMap<String, LocalEndpoint> inJvmEndpoints = new ConcurrentHashMap<String, LocalEndpoint>();
+
+	// interface[-group] : 当前生效的本地地址
+	private volatile Map<String, List<LocalEndpoint>> endpoints = new HashMap<String, List<LocalEndpoint>>();
+
+	// interface[-group]?参数 : LocalRoute, 只包含已经连接好的本地地址, 重建后整体替换
+	private volatile LocalRoutingTable routingTable = LocalRoutingTable.EMPTY;
+
+	// 本地Invoker在后台连接好之后才发布路由
+	private final LocalInvokerManager invokerManager = new LocalInvokerManager(new LocalInvokerManager.Listener() {
+
+		@Override
+		public void onRoutesChanged() {
+			synchronized (writeMonitor) {
+				LocalProviderRegistry.this.publishRoutingTable();
+			}
+		}
+
+		@Override
+		public void onConnectFailed() {
+			synchronized (readyMonitor) {
+				readyMonitor.notifyAll();
+			}
+		}
+	});
+
+	private final LocalRoutingMetrics metrics = LocalRoutingMetrics.getInstance();
+
+	private final List<RoutingListener> listeners = new CopyOnWriteArrayList<RoutingListener>();
+
+	// 写操作(监听线程和调用失败清理)互斥, 读操作不加锁
+	private final Object writeMonitor = new Object();
+
+	// 路由发布或者连接失败后唤醒awaitReady
+	private final Object readyMonitor = new Object();
+
+	private LocalProviderWatcher watcher;
+
+	// registryFormat=mapped时, 轮询注册文件的sequence
+	private ScheduledExecutorService mappedPoller;
+
+	private MappedRegistryFile mappedRegistry;
+
+	private volatile long mappedSequence = -1;
+
+	// 注册文件被删除重建后重新映射, sequence可能和之前相同
+	private int mappedGeneration = -1;
+
+	// 检查provider租约, leaseTimeout<=0时不启动
+	private ScheduledExecutorService leaseChecker;
+
+	// 租约过期被删除的来源(文件名或registry.dat#应用名@pid), 重新续约后恢复
+	private final Set<String> expiredSources = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private LocalProviderRegistry() {
+	}
+
+	public static LocalProviderRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * 启动监听, 重复调用无影响
+	 */
+	public synchronized void start() {
+		if(watcher != null) {
+			return ;
+		}
+		String filePath = DubboClientLocalListener.notifyFilePath;
+		this.invokerManager.start();
+		this.metrics.register();
+		LocalRequestTracer.getInstance().start();
+		this.watcher = new LocalProviderWatcher(filePath, new LocalProviderWatcher.Listener() {
+
+			@Override
+			public void onChange(File file) {
+				LocalProviderRegistry.this.loadLocal(file);
+			}
+
+			@Override
+			public void onDelete(String fileName) {
+				LocalProviderRegistry.this.removeLocal(fileName);
+			}
+
+			@Override
+			public void onReconcile(File[] files) {
+				LocalProviderRegistry.this.sannerLocal(files);
+			}
+		});
+		this.watcher.start();
+		if(DubboClientLocalListener.REGISTRY_FORMAT_MAPPED.equals(DubboClientLocalListener.registryFormat)) {
+			this.startMappedPoller(filePath);
+		}
+		if(DubboClientLocalListener.leaseTimeout > 0) {
+			this.startLeaseChecker();
+		}
+		logger.info("本地provider注册表启动, 监听目录: " + filePath + ", 注册格式: " + DubboClientLocalListener.registryFormat);
+	}
+
+	/**
+	 * 停止监听, 销毁本地Invoker
+	 */
+	public synchronized void stop() {
+		if(watcher == null) {
+			return ;
+		}
+		this.watcher.stop();
+		this.watcher = null;
+		if(mappedPoller != null) {
+			this.mappedPoller.shutdownNow();
+			this.mappedPoller = null;
+			this.mappedRegistry = null;
+			this.mappedSequence = -1;
+			this.mappedGeneration = -1;
+		}
+		if(leaseChecker != null) {
+			this.leaseChecker.shutdownNow();
+			this.leaseChecker = null;
+		}
+		synchronized (writeMonitor) {
+			cacheLocalProviders.clear();
+			expiredSources.clear();
+			// 重新启动后由DubboProviderRegisteBarrier重新登记, 不发布已经取消导出的服务
+			inJvmEndpoints.clear();
+			this.rebuildRoutingTable();
+		}
+		this.invokerManager.stop();
+		this.metrics.unregister();
+		LocalRequestTracer.getInstance().stop();
+		logger.info("本地provider注册表关闭");
+	}
+
+	public boolean isRunning() {
+		return watcher != null;
+	}
+
+	/**
+	 * 订阅路由变化, 订阅时立即推送一次当前快照
+	 */
+	public void subscribe(RoutingListener listener) {
+		listeners.add(listener);
+		listener.onRoutingChanged(routingTable);
+	}
+
+	public void unsubscribe(RoutingListener listener) {
+		listeners.remove(listener);
+	}
+
+	public LocalRoutingTable getRoutingTable() {
+		return routingTable;
+	}
+
+	/**
+	 * reference订阅本地地址, 有本地provider时在后台提前建立连接
+	 *
+	 * @return 路由key(interface[-group]?参数), 用它查找路由表
+	 */
+	public String subscribe(String interfaceKey, Class<?> type, URL url) {
+		return invokerManager.subscribe(interfaceKey, type, url);
+	}
+
+	/**
+	 * reference销毁时取消订阅, 配置相同的reference都销毁后销毁本地Invoker并重新发布路由
+	 */
+	public void unsubscribe(String referKey) {
+		if(invokerManager.unsubscribe(referKey)) {
+			synchronized (writeMonitor) {
+				this.publishRoutingTable();
+			}
+		}
+	}
+
+	/**
+	 * 有本地地址但还没有连接好时等待路由发布, 最多timeout毫秒;
+	 * 没有本地地址或者没有正在进行的连接(已经连接失败, 在后台退避重试)时立即返回
+	 *
+	 * @return 是否已经可以路由到本地
+	 */
+	public boolean awaitReady(String interfaceKey, String referKey, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (readyMonitor) {
+			while(routingTable.get(referKey) == null) {
+				long remaining = deadline - System.currentTimeMillis();
+				if(!endpoints.containsKey(interfaceKey) || !invokerManager.isConnecting(referKey) || remaining <= 0) {
+					return false;
+				}
+				try {
+					readyMonitor.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	public LocalInvokerManager getInvokerManager() {
+		return invokerManager;
+	}
+
+	/**
+	 * 登记同一个进程中导出的服务, 这些接口优先走injvm
+	 *
+	 * @param localKeys interface[-group]$port
+	 */
+	public void exportInJvm(Collection<String> localKeys) {
+		synchronized (writeMonitor) {
+			for(String localKey : localKeys) {
+				LocalEndpoint endpoint = LocalEndpoint.inJvm(localKey);
+				if(endpoint != null) {
+					inJvmEndpoints.put(localKey, endpoint);
+				}
+			}
+			this.rebuildRoutingTable();
+		}
+	}
+
+	/**
+	 * 同一个进程中导出的服务取消导出
+	 */
+	public void unexportInJvm(String localKey) {
+		synchronized (writeMonitor) {
+			if(inJvmEndpoints.remove(localKey) != null) {
+				this.rebuildRoutingTable();
+			}
+		}
+	}
+
+	private void startMappedPoller(String filePath) {
+		this.mappedRegistry = new MappedRegistryFile(filePath);
+		this.mappedPoller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "local-provider-mapped-poller");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final MappedRegistryFile registryFile = this.mappedRegistry;
+		// 第一次同步读取, 启动返回时已经知道有哪些本地地址
+		this.pollMapped(registryFile);
+		this.mappedPoller.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				LocalProviderRegistry.this.pollMapped(registryFile);
+			}
+		}, DubboClientLocalListener.mappedPollInterval, DubboClientLocalListener.mappedPollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 只读一个long判断是否变化, 变化时再拷贝全部记录
+	 */
+	private void pollMapped(MappedRegistryFile registryFile) {
+		try {
+			long sequence = registryFile.sequence();
+			int generation = registryFile.generation();
+			if((sequence == mappedSequence && generation == mappedGeneration) || (sequence & 1) == 1) {
+				return ;
+			}
+			MappedRegistryFile.Snapshot snapshot = registryFile.read();
+			if(snapshot == null) {
+				return ;
+			}
+			Map<String, List<LocalEndpoint>> endpointsByApp = new HashMap<String, List<LocalEndpoint>>();
+			long now = System.currentTimeMillis();
+			for(MappedRegistryFile.Entry entry : snapshot.getEntries()) {
+				String source = MAPPED_SOURCE_PREFIX + entry.getInstance();
+				if(this.isExpired(entry.getUpdateTime(), now)) {
+					expiredSources.add(source);
+					continue ;
+				}
+				LocalEndpoint endpoint = LocalEndpoint.parse(entry.getLocalKey(), source, entry.getUpdateTime());
+				if(endpoint == null) {
+					continue ;
+				}
+				List<LocalEndpoint> endpoints = endpointsByApp.get(source);
+				if(endpoints == null) {
+					endpoints = new ArrayList<LocalEndpoint>();
+					endpointsByApp.put(source, endpoints);
+				}
+				endpoints.add(endpoint);
+			}
+			long start = System.nanoTime();
+			synchronized (writeMonitor) {
+				for(String source : cacheLocalProviders.keySet()) {
+					if(source.startsWith(MAPPED_SOURCE_PREFIX) && !endpointsByApp.containsKey(source)) {
+						cacheLocalProviders.remove(source);
+					}
+				}
+				for(Map.Entry<String, List<LocalEndpoint>> entry : endpointsByApp.entrySet()) {
+					cacheLocalProviders.put(entry.getKey(), new FileContent(snapshot.getSequence(), entry.getValue()));
+				}
+				this.rebuildRoutingTable();
+			}
+			metrics.recordScan(System.nanoTime() - start);
+			this.mappedSequence = snapshot.getSequence();
+			this.mappedGeneration = generation;
+		} catch (Exception e) {
+			logger.error("读取注册文件", e);
+		}
+	}
+
+	private void startLeaseChecker() {
+		this.leaseChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "local-provider-lease");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long interval = Math.max(100, DubboClientLocalListener.leaseTimeout / 4);
+		this.leaseChecker.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				LocalProviderRegistry.this.checkLeases();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 删除租约过期的来源, 恢复重新续约的来源; 在请求路由到已经退出的provider之前摘掉
+	 */
+	void checkLeases() {
+		Map<String, Long> mappedLeases = Collections.emptyMap();
+		MappedRegistryFile registryFile = this.mappedRegistry;
+		try {
+			if(registryFile != null) {
+				mappedLeases = registryFile.leases();
+			}
+		} catch (IOException e) {
+			logger.error("读取注册文件租约", e);
+			return ;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (writeMonitor) {
+			boolean changed = false;
+			for(String source : cacheLocalProviders.keySet()) {
+				if(this.isLeaseExpired(source, mappedLeases, now)) {
+					cacheLocalProviders.remove(source);
+					expiredSources.add(source);
+					changed = true;
+					logger.warn("本地provider【" + source + "】租约过期, 删除本地路由");
+				}
+			}
+			for(String source : expiredSources) {
+				if(this.isLeaseExpired(source, mappedLeases, now)) {
+					continue ;
+				}
+				expiredSources.remove(source);
+				if(source.startsWith(MAPPED_SOURCE_PREFIX)) {
+					// 下一次轮询重新读取全部记录
+					this.mappedSequence = -1;
+					continue ;
+				}
+				File providerFile = new File(DubboClientLocalListener.notifyFilePath, source);
+				try {
+					if(providerFile.isFile() && this.refreshIfModified(providerFile)) {
+						changed = true;
+						logger.info("本地provider【" + source + "】重新续约, 恢复本地路由");
+					}
+				} catch (IOException e) {
+					logger.error("加载本地文件【" + source + "】", e);
+				}
+			}
+			if(changed) {
+				this.rebuildRoutingTable();
+			}
+		}
+	}
+
+	/**
+	 * properties格式看 应用名@pid.lease 的修改时间, 没有租约文件(旧版本provider)不过期; mapped格式看记录的updateTime
+	 */
+	private boolean isLeaseExpired(String source, Map<String, Long> mappedLeases, long now) {
+		if(source.startsWith(MAPPED_SOURCE_PREFIX)) {
+			Long lease = mappedLeases.get(source.substring(MAPPED_SOURCE_PREFIX.length()));
+			// 记录已经删除, 由轮询线程处理
+			return lease != null && this.isExpired(lease, now);
+		}
+		if(!source.endsWith(LocalNotifyPublisher.NOTIFY_SUFFIX)) {
+			return false;
+		}
+		long lease = new File(DubboClientLocalListener.notifyFilePath, LocalNotifyPublisher.leaseFileName(source)).lastModified();
+		return lease > 0 && this.isExpired(lease, now);
+	}
+
+	private boolean isExpired(long lease, long now) {
+		return DubboClientLocalListener.leaseTimeout > 0 && now - lease > DubboClientLocalListener.leaseTimeout;
+	}
+
+	/**
+	 * 全量对账, 启动或者事件丢失时调用
+	 */
+	void sannerLocal(File[] files) {
+		long start = System.nanoTime();
+		Set<String> localFileNames = new HashSet<String>();
+		synchronized (writeMonitor) {
+			for(File providerFile : files) {
+				if(!providerFile.isFile() || this.isDataFile(providerFile.getName())) {
+					continue ;
+				}
+				localFileNames.add(providerFile.getName());
+				try {
+					this.refreshIfModified(providerFile);
+				} catch (Exception e) {
+					logger.error("加载本地文件【" + providerFile.getName() + "】", e);
+				}
+			}
+			this.clearCacheLastModified(localFileNames);
+			this.rebuildRoutingTable();
+		}
+		metrics.recordScan(System.nanoTime() - start);
+	}
+
+	void loadLocal(File providerFile) {
+		if(this.isDataFile(providerFile.getName())) {
+			return ;
+		}
+		long start = System.nanoTime();
+		synchronized (writeMonitor) {
+			try {
+				if(this.refreshIfModified(providerFile)) {
+					this.rebuildRoutingTable();
+					metrics.recordScan(System.nanoTime() - start);
+				}
+			} catch (Exception e) {
+				logger.error("加载本地文件【" + providerFile.getName() + "】", e);
+			}
+		}
+	}
+
+	private void removeLocal(String fileName) {
+		synchronized (writeMonitor) {
+			expiredSources.remove(fileName);
+			if(cacheLocalProviders.remove(fileName) != null) {
+				this.rebuildRoutingTable();
+			}
+		}
+	}
+
+	private boolean refreshIfModified(File providerFile) throws IOException {
+		if(this.isLeaseExpired(providerFile.getName(), Collections.<String, Long>emptyMap(), System.currentTimeMillis())) {
+			expiredSources.add(providerFile.getName());
+			return cacheLocalProviders.remove(providerFile.getName()) != null;
+		}
+		long lastModified = providerFile.lastModified();
+		FileContent fileContent = cacheLocalProviders.get(providerFile.getName());
+		// 同一次写入可能触发多个MODIFY事件
+		if(fileContent != null && fileContent.lastModified == lastModified) {
+			return false;
+		}
+		cacheLocalProviders.put(providerFile.getName(), new FileContent(lastModified, //
+				this.resloveEndpoints(providerFile.getName(), lastModified, this.resloveProperties(providerFile))));
+		return true;
+	}
+
+	/**
+	 * 重新汇总本地地址并同步到Invoker管理, 调用方需持有writeMonitor
+	 * <p>
+	 * 同一个接口的全部本地provider都保留, 由LocalLoadBalance选择; 同进程的排在前面, 其次是最新的通知文件.
+	 * 同一个端口出现在多处时, 同进程的优先, 其次使用最新的通知文件
+	 */
+	private void rebuildRoutingTable() {
+		Map<String, LocalEndpoint> byLocalKey = new HashMap<String, LocalEndpoint>();
+		for(LocalEndpoint endpoint : inJvmEndpoints.values()) {
+			byLocalKey.put(endpoint.getLocalKey(), endpoint);
+		}
+		for(FileContent fileContent : cacheLocalProviders.values()) {
+			for(LocalEndpoint endpoint : fileContent.endpoints) {
+				LocalEndpoint exists = byLocalKey.get(endpoint.getLocalKey());
+				if(exists == null || exists.getLastModified() < endpoint.getLastModified()) {
+					byLocalKey.put(endpoint.getLocalKey(), endpoint);
+				}
+			}
+		}
+		Map<String, List<LocalEndpoint>> selected = new HashMap<String, List<LocalEndpoint>>();
+		for(LocalEndpoint endpoint : byLocalKey.values()) {
+			List<LocalEndpoint> interfaceEndpoints = selected.get(endpoint.getInterfaceKey());
+			if(interfaceEndpoints == null) {
+				interfaceEndpoints = new ArrayList<LocalEndpoint>(1);
+				selected.put(endpoint.getInterfaceKey(), interfaceEndpoints);
+			}
+			interfaceEndpoints.add(endpoint);
+		}
+		for(List<LocalEndpoint> interfaceEndpoints : selected.values()) {
+			if(interfaceEndpoints.size() > 1) {
+				Collections.sort(interfaceEndpoints, NEWEST_FIRST);
+			}
+		}
+		this.endpoints = selected;
+		this.invokerManager.sync(selected);
+		this.publishRoutingTable();
+	}
+
+	/**
+	 * 发布路由快照并通知订阅者, 调用方需持有writeMonitor
+	 */
+	private void publishRoutingTable() {
+		LocalRoutingTable table = LocalRoutingTable.build(endpoints, invokerManager.getReferKeys(), invokerManager.getRoutes());
+		this.routingTable = table;
+		for(RoutingListener listener : listeners) {
+			try {
+				listener.onRoutingChanged(table);
+			} catch (Exception e) {
+				logger.error("通知路由变化", e);
+			}
+		}
+		synchronized (readyMonitor) {
+			readyMonitor.notifyAll();
+		}
+	}
+
+	private List<LocalEndpoint> resloveEndpoints(String fileName, long lastModified, Properties prop) {
+		List<LocalEndpoint> endpoints = new ArrayList<LocalEndpoint>(prop.size());
+		for(Object localKey : prop.keySet()) {
+			LocalEndpoint endpoint = LocalEndpoint.parse(String.valueOf(localKey), fileName, lastModified);
+			if(endpoint == null) {
+				logger.warn("忽略本地文件【" + fileName + "】中格式错误的记录: " + localKey);
+				continue ;
+			}
+			endpoints.add(endpoint);
+		}
+		return endpoints;
+	}
+
+	/**
+	 * 注册文件、共享内存通道文件、写入中的临时文件(应用名@pid.properties.tmp)和租约文件(应用名@pid.lease)不是通知文件
+	 */
+	private boolean isDataFile(String fileName) {
+		return MappedRegistryFile.FILE_NAME.equals(fileName) || fileName.endsWith(SharedMemoryChannel.FILE_SUFFIX) //
+				|| fileName.endsWith(LocalNotifyPublisher.TEMP_SUFFIX) || fileName.endsWith(LocalNotifyPublisher.LEASE_SUFFIX);
+	}
+
+	private void clearCacheLastModified(Set<String> localFileNames) {
+		ConcurrentHashMap<String, FileContent> cacheProviders = this.cacheLocalProviders;
+		for(String fileName : cacheProviders.keySet()) {
+			// 注册文件中的记录由轮询线程维护
+			if(!fileName.startsWith(MAPPED_SOURCE_PREFIX) && !localFileNames.contains(fileName)) {
+				cacheProviders.remove(fileName);
+			}
+		}
+	}
+
+	private Properties resloveProperties(File file) throws IOException {
+		Properties prop = new Properties();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			prop.load(in);
+		} finally {
+			in.close();
+		}
+		return prop;
+	}
+
+	public interface RoutingListener {
+
+		/**
+		 * 路由快照发生变化, 在监听线程中回调
+		 */
+		void onRoutingChanged(LocalRoutingTable routingTable);
+
+	}
+
+	private class FileContent {
+
+		long lastModified;
+
+		List<LocalEndpoint> endpoints;
+
+		public FileContent(long lastModified, List<LocalEndpoint> endpoints) {
+			super();
+			this.lastModified = lastModified;
+			this.endpoints = endpoints;
+		}
+
+	}
+
+}
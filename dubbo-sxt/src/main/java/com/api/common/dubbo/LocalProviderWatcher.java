@@ -0,0 +1,152 @@
+package com.api.common.dubbo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 本地provider通知目录监听
+ * <p>
+ * 基于WatchService事件驱动, 新增/修改/删除增量通知, 只有OVERFLOW时才做一次全量扫描,
+ * 没有变化时线程阻塞在take()上, 不做任何事情
+ *
+ * @author sxt
+ */
+public class LocalProviderWatcher implements Runnable {
+
+	private Logger logger = Logger.getLogger(this.getClass());
+
+	private final String filePath;
+
+	private final Listener listener;
+
+	private WatchService watchService;
+
+	private Thread worker;
+
+	private volatile boolean running = false;
+
+	public LocalProviderWatcher(String filePath, Listener listener) {
+		this.filePath = filePath;
+		this.listener = listener;
+	}
+
+	public synchronized void start() {
+		if(running) {
+			return ;
+		}
+		File dir = new File(filePath);
+		if(!dir.exists()) {
+			dir.mkdirs();
+		}
+		try {
+			Path path = Paths.get(filePath);
+			this.watchService = FileSystems.getDefault().newWatchService();
+			path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, //
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException e) {
+			logger.error("监听本地通知目录【" + filePath + "】失败", e);
+			return ;
+		}
+		this.running = true;
+		// 注册之前已经存在的文件
+		this.reconcile();
+		this.worker = new Thread(this, "local-provider-watcher");
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	public synchronized void stop() {
+		if(!running) {
+			return ;
+		}
+		this.running = false;
+		try {
+			this.watchService.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		this.worker.interrupt();
+	}
+
+	@Override
+	public void run() {
+		while(running) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return ;
+			} catch (ClosedWatchServiceException e) {
+				return ;
+			}
+			try {
+				this.dispatch(key);
+			} catch (Exception e) {
+				logger.error("处理本地通知文件事件", e);
+			}
+			if(!key.reset()) {
+				logger.warn("本地通知目录【" + filePath + "】不可用, 停止监听");
+				this.running = false;
+				return ;
+			}
+		}
+	}
+
+	private void dispatch(WatchKey key) {
+		for(WatchEvent<?> event : key.pollEvents()) {
+			WatchEvent.Kind<?> kind = event.kind();
+			if(kind == StandardWatchEventKinds.OVERFLOW) {
+				// 事件丢失, 全量对账一次
+				this.reconcile();
+				continue ;
+			}
+			String fileName = String.valueOf(event.context());
+			File file = new File(filePath, fileName);
+			if(kind == StandardWatchEventKinds.ENTRY_DELETE || !file.isFile()) {
+				listener.onDelete(fileName);
+			}
+			else {
+				listener.onChange(file);
+			}
+		}
+	}
+
+	/**
+	 * 全量扫描, 只在启动和OVERFLOW时执行
+	 */
+	private void reconcile() {
+		File[] files = new File(filePath).listFiles();
+		listener.onReconcile(files == null? new File[0]: files);
+	}
+
+	public interface Listener {
+
+		/**
+		 * 文件新增或修改
+		 */
+		void onChange(File file);
+
+		/**
+		 * 文件删除
+		 */
+		void onDelete(String fileName);
+
+		/**
+		 * 目录下当前全部文件
+		 */
+		void onReconcile(File[] files);
+
+	}
+
+}
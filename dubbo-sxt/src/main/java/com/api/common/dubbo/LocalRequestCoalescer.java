@@ -0,0 +1,216 @@
+package com.api.common.dubbo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.alibaba.dubbo.common.Constants;
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Invocation;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcContext;
+import com.alibaba.dubbo.rpc.RpcException;
+
+/**
+ * 合并同时进行中的相同请求(single-flight), 每个reference一个, 按方法开启, 只用于幂等的只读方法
+ * <p>
+ * 方法、参数类型、参数和attachments(RpcContext和Invocation的)都相同的请求同时到达时, 第一个(leader)真正发出调用,
+ * 其他的等它的结果; 结果或者异常返回给所有等待者. attachments不同的请求(比如带了不同的traceId)不合并,
+ * 否则provider只能看到leader的attachments.
+ * 一次调用的等待者超过上限时, 超出的请求自己发出调用, 不再等待. 结果对象被所有等待者共享, 不要修改.
+ * 配置方式(可以配置在dubbo:method上):
+ * <pre>
+ * &lt;dubbo:reference ...&gt;
+ *     &lt;dubbo:method name="getConfig"&gt;
+ *         &lt;dubbo:parameter key="local.coalesce" value="true"/&gt;
+ *         &lt;dubbo:parameter key="local.coalesce.waiters" value="100"/&gt;   &lt;!-- 一次调用最多的等待者 --&gt;
+ *     &lt;/dubbo:method&gt;
+ * &lt;/dubbo:reference&gt;
+ * </pre>
+ *
+ * @author sxt
+ */
+public class LocalRequestCoalescer {
+
+	public static final String COALESCE_KEY = "local.coalesce";
+
+	public static final String COALESCE_WAITERS_KEY = "local.coalesce.waiters";
+
+	private static final int DEFAULT_WAITERS = 100;
+
+	// 没有开启合并的方法
+	private static final MethodFlights DISABLED = new MethodFlights(0, 0);
+
+	private final URL url;
+
+	private final LocalRoutingMetrics.ServiceMetrics metrics;
+
+	// methodName : MethodFlights
+	private final ConcurrentHashMap<String, MethodFlights> methods = new ConcurrentHashMap<String, MethodFlights>();
+
+	private LocalRequestCoalescer(URL url, LocalRoutingMetrics.ServiceMetrics metrics) {
+		this.url = url;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * reference和它的方法都没有配置local.coalesce时返回null
+	 */
+	public static LocalRequestCoalescer create(URL url, LocalRoutingMetrics.ServiceMetrics metrics) {
+		for(String key : url.getParameters().keySet()) {
+			if(key.equals(COALESCE_KEY) || key.endsWith("." + COALESCE_KEY)) {
+				return new LocalRequestCoalescer(url, metrics);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 加入进行中的相同请求
+	 *
+	 * @return 没有开启合并或者等待者已满返回null, 调用方自己发出调用;
+	 *         否则返回的Flight.isLeader()为true时由调用方发出调用并complete, 为false时await等结果
+	 */
+	public Flight join(Invocation invocation) {
+		String methodName = invocation.getMethodName();
+		MethodFlights flights = this.method(methodName);
+		if(flights == DISABLED) {
+			return null;
+		}
+		LocalRoutingMetrics.MethodMetrics methodMetrics = metrics.method(methodName);
+		LocalArgumentsKey key = new LocalArgumentsKey(invocation.getParameterTypes(), invocation.getArguments(), attachments(invocation));
+		Flight flight = new Flight(flights, key);
+		Flight existing = flights.inflight.putIfAbsent(key, flight);
+		if(existing == null) {
+			methodMetrics.recordCoalesce(true);
+			return flight;
+		}
+		if(existing.waiters.incrementAndGet() > flights.maxWaiters) {
+			existing.waiters.decrementAndGet();
+			methodMetrics.recordCoalesceOverflow();
+			return null;
+		}
+		methodMetrics.recordCoalesce(false);
+		return existing;
+	}
+
+	/**
+	 * 调用时实际发出的attachments: RpcContext的加上Invocation的
+	 */
+	private static Map<String, String> attachments(Invocation invocation) {
+		Map<String, String> context = RpcContext.getContext().getAttachments();
+		Map<String, String> own = invocation.getAttachments();
+		if(own == null || own.isEmpty()) {
+			return context;
+		}
+		Map<String, String> attachments = new HashMap<String, String>(context);
+		attachments.putAll(own);
+		return attachments;
+	}
+
+	private MethodFlights method(String methodName) {
+		MethodFlights flights = methods.get(methodName);
+		if(flights == null) {
+			flights = DISABLED;
+			if(url.getMethodParameter(methodName, COALESCE_KEY, false)) {
+				// leader的调用包括远程重试和本地失败回退, 等待者最多等这么久
+				long timeout = url.getMethodParameter(methodName, Constants.TIMEOUT_KEY, Constants.DEFAULT_TIMEOUT);
+				int retries = Math.max(0, url.getMethodParameter(methodName, Constants.RETRIES_KEY, Constants.DEFAULT_RETRIES));
+				flights = new MethodFlights(Math.max(0, url.getMethodParameter(methodName, COALESCE_WAITERS_KEY, DEFAULT_WAITERS)), //
+						timeout * (retries + 2));
+			}
+			MethodFlights exists = methods.putIfAbsent(methodName, flights);
+			if(exists != null) {
+				flights = exists;
+			}
+		}
+		return flights;
+	}
+
+	private static class MethodFlights {
+
+		private final int maxWaiters;
+
+		private final long awaitTimeout;
+
+		private final ConcurrentHashMap<LocalArgumentsKey, Flight> inflight = new ConcurrentHashMap<LocalArgumentsKey, Flight>();
+
+		MethodFlights(int maxWaiters, long awaitTimeout) {
+			this.maxWaiters = maxWaiters;
+			this.awaitTimeout = awaitTimeout;
+		}
+
+	}
+
+	/**
+	 * 一次进行中的调用
+	 */
+	public static class Flight {
+
+		private final MethodFlights flights;
+
+		private final LocalArgumentsKey key;
+
+		private final Thread leader = Thread.currentThread();
+
+		private final AtomicInteger waiters = new AtomicInteger();
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile Result result;
+
+		private volatile RuntimeException error;
+
+		Flight(MethodFlights flights, LocalArgumentsKey key) {
+			this.flights = flights;
+			this.key = key;
+		}
+
+		public boolean isLeader() {
+			return leader == Thread.currentThread();
+		}
+
+		/**
+		 * leader调用结束后调用一次, 之后到达的相同请求重新发出调用
+		 *
+		 * @param error 调用抛出的异常, 正常返回时为null
+		 */
+		public void complete(Result result, RuntimeException error) {
+			this.result = result;
+			this.error = error;
+			flights.inflight.remove(key, this);
+			done.countDown();
+		}
+
+		/**
+		 * 等leader的结果, leader抛出异常时每个等待者抛出各自的RpcException
+		 */
+		public Result await() throws RpcException {
+			try {
+				if(!done.await(flights.awaitTimeout, TimeUnit.MILLISECONDS)) {
+					throw new RpcException(RpcException.TIMEOUT_EXCEPTION, "等待合并的请求超时: " + flights.awaitTimeout + "ms");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RpcException("等待合并的请求被中断", e);
+			}
+			RuntimeException e = this.error;
+			if(e == null) {
+				if(result == null) {
+					// leader抛出了Error
+					throw new RpcException("合并的请求调用失败");
+				}
+				return result;
+			}
+			if(e instanceof RpcException) {
+				throw new RpcException(((RpcException) e).getCode(), e.getMessage(), e);
+			}
+			throw new RpcException(e.getMessage(), e);
+		}
+
+	}
+
+}
@@ -0,0 +1,330 @@
+package com.api.common.dubbo;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.utils.NetUtils;
+import com.alibaba.dubbo.rpc.Invocation;
+
+/**
+ * 本地路由的请求日志
+ * <p>
+ * 调用线程只把请求的引用放进无锁环形缓冲区(满了直接丢弃), 参数的渲染和截断都在后台线程里做,
+ * 不再用System.out同步打印. 参数对象在打印前被业务修改的话, 日志里是修改后的值.
+ * 字符串、数组、集合和Map边渲染边截断, 不会先把整个参数转成字符串; 其他对象只能toString之后截断.
+ * 后台线程随LocalProviderRegistry启动和停止, 空闲时park, 由写入方unpark, 不轮询.
+ * 缓冲区在启动时按DubboClientLocalListener.traceBufferSize创建, 没有启动时的请求直接丢弃.
+ * 配置(reference参数):
+ * <pre>
+ * local.trace         是否打印本地路由日志, 默认true
+ * local.trace.sample  采样率(0~1), 默认DubboClientLocalListener.traceSampleRate
+ * </pre>
+ *
+ * @author sxt
+ */
+public class LocalRequestTracer {
+
+	private static Logger logger = Logger.getLogger(LocalRequestTracer.class);
+
+	private static final LocalRequestTracer INSTANCE = new LocalRequestTracer();
+
+	private static final long STOP_WAIT_MILLIS = 1000;
+
+	// 集合、数组嵌套超过这个深度时直接toString
+	private static final int MAX_RENDER_DEPTH = 3;
+
+	private final String localHost = NetUtils.getLocalHost();
+
+	// 启动时创建, 大小变化时重建; 没有启动过为null
+	private volatile Ring ring;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	// 后台线程, 没有启动时为null
+	private volatile Thread writer;
+
+	// 后台线程准备park, 写入方发布后看到true时unpark
+	private volatile boolean sleeping;
+
+	private LocalRequestTracer() {
+	}
+
+	public static LocalRequestTracer getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * 启动后台打印线程, 重复调用无影响; 缓冲区大小和上次启动时不同时重建, 停止期间写入的日志丢弃
+	 */
+	public synchronized void start() {
+		if(writer != null) {
+			return ;
+		}
+		int size = Integer.highestOneBit(Math.max(2, DubboClientLocalListener.traceBufferSize) * 2 - 1);
+		if(ring == null || ring.slots.length != size) {
+			this.ring = new Ring(size);
+		}
+		final Ring current = this.ring;
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				LocalRequestTracer.this.drain(current);
+			}
+		}, "local-request-tracer");
+		thread.setDaemon(true);
+		this.writer = thread;
+		thread.start();
+	}
+
+	/**
+	 * 停止后台打印线程, 已经写入的日志打印完再退出; 停止期间写入的日志留到下次启动
+	 */
+	public synchronized void stop() {
+		Thread thread = this.writer;
+		if(thread == null) {
+			return ;
+		}
+		this.writer = null;
+		LockSupport.unpark(thread);
+		try {
+			// 等旧线程退出, 同一时间只有一个线程读取
+			thread.join(STOP_WAIT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * reference的采样率, 0表示不打印
+	 */
+	public static double sampleRate(URL url) {
+		if(!url.getParameter("local.trace", true)) {
+			return 0;
+		}
+		String rate = url.getParameter("local.trace.sample");
+		return rate == null? DubboClientLocalListener.traceSampleRate: Double.parseDouble(rate);
+	}
+
+	/**
+	 * 记录一次本地路由, 调用线程上不做字符串拼接
+	 */
+	public void trace(double sampleRate, Class<?> type, Invocation invocation, int port) {
+		if(sampleRate <= 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+			return ;
+		}
+		Ring ring = this.ring;
+		if(ring == null) {
+			dropped.incrementAndGet();
+			return ;
+		}
+		Slot slot;
+		long seq;
+		for(;;) {
+			seq = ring.tail.get();
+			slot = ring.slots[(int) (seq & ring.mask)];
+			if(slot.sequence != seq) {
+				// 后台线程来不及打印, 丢弃
+				dropped.incrementAndGet();
+				return ;
+			}
+			if(ring.tail.compareAndSet(seq, seq + 1)) {
+				break ;
+			}
+		}
+		slot.type = type;
+		slot.methodName = invocation.getMethodName();
+		slot.parameterTypes = invocation.getParameterTypes();
+		slot.arguments = invocation.getArguments();
+		slot.port = port;
+		// 发布
+		slot.sequence = seq + 1;
+		if(sleeping) {
+			Thread thread = this.writer;
+			if(thread != null) {
+				LockSupport.unpark(thread);
+			}
+		}
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	private void drain(Ring ring) {
+		StringBuilder builder = new StringBuilder();
+		long reported = 0;
+		for(;;) {
+			long head = ring.head;
+			Slot slot = ring.slots[(int) (head & ring.mask)];
+			if(slot.sequence != head + 1) {
+				long lost = dropped.get();
+				if(lost != reported) {
+					logger.warn("本地路由日志缓冲区已满, 累计丢弃" + lost + "条");
+					reported = lost;
+				}
+				if(writer != Thread.currentThread()) {
+					return ;
+				}
+				// 先声明要park再检查一次, 写入方发布后能看到sleeping, 不会漏掉唤醒
+				sleeping = true;
+				if(slot.sequence != head + 1 && writer == Thread.currentThread()) {
+					LockSupport.park(this);
+				}
+				sleeping = false;
+				continue ;
+			}
+			builder.setLength(0);
+			try {
+				this.render(builder, slot);
+				logger.info(builder);
+			} catch (Throwable e) {
+				logger.warn("打印本地路由日志", e);
+			}
+			slot.type = null;
+			slot.methodName = null;
+			slot.parameterTypes = null;
+			slot.arguments = null;
+			// 释放给下一轮写入
+			slot.sequence = head + ring.slots.length;
+			ring.head = head + 1;
+		}
+	}
+
+	private void render(StringBuilder builder, Slot slot) {
+		builder.append(">>>>> 使用本地provider, ")
+			   .append(localHost).append(":").append(slot.port).append(", ")
+			   .append(slot.type.getName()).append(".").append(slot.methodName)
+			   .append("(");
+		Object[] args = slot.arguments;
+		Class<?>[] pts = slot.parameterTypes;
+		int maxLength = DubboClientLocalListener.traceArgLength;
+		for(int i = 0; args != null && i < args.length; i++) {
+			if(!appendBounded(builder, args[i], builder.length() + maxLength, 0)) {
+				builder.append("...");
+			}
+			if(pts != null && i < pts.length) {
+				builder.append("[").append(pts[i].getName()).append("]");
+			}
+			if(i < args.length - 1) {
+				builder.append(",");
+			}
+		}
+		builder.append(")");
+	}
+
+	/**
+	 * 渲染到end为止, 超过时返回false
+	 */
+	static boolean appendBounded(StringBuilder builder, Object value, int end, int depth) {
+		if(builder.length() >= end) {
+			return false;
+		}
+		if(value == null || value instanceof CharSequence) {
+			return appendText(builder, value == null? "null": (CharSequence) value, end);
+		}
+		if(depth < MAX_RENDER_DEPTH) {
+			if(value instanceof Collection) {
+				return appendElements(builder, ((Collection<?>) value).iterator(), "[", "]", end, depth);
+			}
+			if(value instanceof Map) {
+				return appendElements(builder, ((Map<?, ?>) value).entrySet().iterator(), "{", "}", end, depth);
+			}
+			if(value instanceof Map.Entry) {
+				Map.Entry<?, ?> entry = (Map.Entry<?, ?>) value;
+				return appendBounded(builder, entry.getKey(), end, depth + 1) && appendText(builder, "=", end) //
+						&& appendBounded(builder, entry.getValue(), end, depth + 1);
+			}
+			if(value.getClass().isArray()) {
+				if(!appendText(builder, "[", end)) {
+					return false;
+				}
+				int length = Array.getLength(value);
+				for(int i = 0; i < length; i++) {
+					if((i > 0 && !appendText(builder, ", ", end)) || !appendBounded(builder, Array.get(value, i), end, depth + 1)) {
+						return false;
+					}
+				}
+				return appendText(builder, "]", end);
+			}
+		}
+		return appendText(builder, String.valueOf(value), end);
+	}
+
+	private static boolean appendElements(StringBuilder builder, Iterator<?> it, String open, String close, int end, int depth) {
+		if(!appendText(builder, open, end)) {
+			return false;
+		}
+		for(boolean first = true; it.hasNext(); first = false) {
+			if((!first && !appendText(builder, ", ", end)) || !appendBounded(builder, it.next(), end, depth + 1)) {
+				return false;
+			}
+		}
+		return appendText(builder, close, end);
+	}
+
+	private static boolean appendText(StringBuilder builder, CharSequence text, int end) {
+		int room = end - builder.length();
+		if(text.length() <= room) {
+			builder.append(text);
+			return true;
+		}
+		builder.append(text, 0, Math.max(0, room));
+		return false;
+	}
+
+	/**
+	 * 单生产者组(CAS抢序号)/单消费者的环形缓冲区
+	 */
+	private static class Ring {
+
+		final Slot[] slots;
+
+		final int mask;
+
+		// 下一个写入的序号
+		final AtomicLong tail = new AtomicLong();
+
+		// 下一个读取的序号, 只有后台线程访问
+		long head = 0;
+
+		Ring(int size) {
+			this.slots = new Slot[size];
+			this.mask = size - 1;
+			for(int i = 0; i < size; i++) {
+				slots[i] = new Slot(i);
+			}
+		}
+
+	}
+
+	private static class Slot {
+
+		// == 写入序号: 可以写入; == 写入序号+1: 可以读取
+		volatile long sequence;
+
+		Class<?> type;
+
+		String methodName;
+
+		Class<?>[] parameterTypes;
+
+		Object[] arguments;
+
+		int port;
+
+		Slot(long sequence) {
+			this.sequence = sequence;
+		}
+
+	}
+
+}
@@ -0,0 +1,262 @@
+package com.api.common.dubbo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Invocation;
+import com.alibaba.dubbo.rpc.Result;
+
+/**
+ * consumer端的结果缓存, 只用于幂等的只读方法(配置、字典等), 每个reference一个, 按方法开启
+ * <p>
+ * key: 方法 + 参数类型 + 参数(deepEquals/deepHashCode), 参数应该是String/数字这类不可变的值;
+ * 只缓存provider正常返回的结果, 业务异常和failsafe/failback吞掉异常后的空结果不缓存.
+ * 缓存的返回值对象被所有调用方共享, 不要修改.
+ * 每个方法一个分段SLRU: 新记录先进试用区, 再次命中升到保护区(占80%), 保护区满了降回试用区, 淘汰试用区最久未使用的;
+ * 只访问一次的大量key不会把常用的key挤出去. 分段加锁, 不同分段之间不竞争.
+ * 本地路由变化(本地provider出现/消失)时清空, 避免本地和远程版本不一致时返回另一边的旧结果.
+ * 配置方式(可以配置在dubbo:method上):
+ * <pre>
+ * &lt;dubbo:reference ...&gt;
+ *     &lt;dubbo:method name="getConfig"&gt;
+ *         &lt;dubbo:parameter key="local.cache" value="true"/&gt;
+ *         &lt;dubbo:parameter key="local.cache.ttl" value="60000"/&gt;   &lt;!-- 毫秒 --&gt;
+ *         &lt;dubbo:parameter key="local.cache.size" value="1000"/&gt;   &lt;!-- 最大记录数 --&gt;
+ *     &lt;/dubbo:method&gt;
+ * &lt;/dubbo:reference&gt;
+ * </pre>
+ *
+ * @author sxt
+ */
+public class LocalResultCache {
+
+	public static final String CACHE_KEY = "local.cache";
+
+	public static final String CACHE_TTL_KEY = "local.cache.ttl";
+
+	public static final String CACHE_SIZE_KEY = "local.cache.size";
+
+	private static final long DEFAULT_TTL = 60 * 1000;
+
+	private static final int DEFAULT_SIZE = 1000;
+
+	private static final int MAX_SEGMENTS = 16;
+
+	// 每个分段至少这么多记录, 太小的缓存分段没有意义
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	// 没有开启缓存的方法
+	private static final MethodCache DISABLED = new MethodCache(0, 1);
+
+	private final URL url;
+
+	private final LocalRoutingMetrics.ServiceMetrics metrics;
+
+	// methodName : MethodCache
+	private final ConcurrentHashMap<String, MethodCache> methods = new ConcurrentHashMap<String, MethodCache>();
+
+	// 填充缓存时的本地路由
+	private volatile List<LocalRoute> routes;
+
+	private LocalResultCache(URL url, LocalRoutingMetrics.ServiceMetrics metrics) {
+		this.url = url;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * reference和它的方法都没有配置local.cache时返回null
+	 */
+	public static LocalResultCache create(URL url, LocalRoutingMetrics.ServiceMetrics metrics) {
+		for(String key : url.getParameters().keySet()) {
+			if(key.equals(CACHE_KEY) || key.endsWith("." + CACHE_KEY)) {
+				return new LocalResultCache(url, metrics);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 查找缓存, 没有开启缓存、没有命中或者已经过期返回null
+	 *
+	 * @param currentRoutes 当前的本地路由, 和填充时不同则先清空
+	 */
+	public Result get(Invocation invocation, List<LocalRoute> currentRoutes) {
+		MethodCache cache = this.method(invocation.getMethodName());
+		if(cache == DISABLED) {
+			return null;
+		}
+		List<LocalRoute> filled = this.routes;
+		if(filled != currentRoutes) {
+			this.routes = currentRoutes;
+			// 路由表重建了但这个接口的本地路由没变时不清空
+			if(filled != null && !currentRoutes.equals(filled)) {
+				this.clear();
+			}
+		}
+		Result result = cache.get(new LocalArgumentsKey(invocation.getParameterTypes(), invocation.getArguments()), System.currentTimeMillis());
+		metrics.method(invocation.getMethodName()).recordCache(result != null);
+		return result;
+	}
+
+	/**
+	 * provider正常返回的结果放进缓存; 调用期间本地路由变了的话不放, 结果可能来自已经不用的provider
+	 *
+	 * @param callRoutes 调用前传给get的本地路由
+	 */
+	public void put(Invocation invocation, Result result, List<LocalRoute> callRoutes) {
+		if(result.hasException() || result instanceof LocalCluster.SwallowedResult || callRoutes != this.routes) {
+			return ;
+		}
+		MethodCache cache = this.method(invocation.getMethodName());
+		if(cache != DISABLED) {
+			cache.put(new LocalArgumentsKey(invocation.getParameterTypes(), invocation.getArguments()), result, System.currentTimeMillis());
+		}
+	}
+
+	public void clear() {
+		for(MethodCache cache : methods.values()) {
+			cache.clear();
+		}
+	}
+
+	private MethodCache method(String methodName) {
+		MethodCache cache = methods.get(methodName);
+		if(cache == null) {
+			cache = DISABLED;
+			if(url.getMethodParameter(methodName, CACHE_KEY, false)) {
+				cache = new MethodCache(url.getMethodParameter(methodName, CACHE_TTL_KEY, DEFAULT_TTL), //
+						Math.max(1, url.getMethodParameter(methodName, CACHE_SIZE_KEY, DEFAULT_SIZE)));
+			}
+			MethodCache exists = methods.putIfAbsent(methodName, cache);
+			if(exists != null) {
+				cache = exists;
+			}
+		}
+		return cache;
+	}
+
+	private static class MethodCache {
+
+		private final long ttl;
+
+		private final Segment[] segments;
+
+		private final int mask;
+
+		MethodCache(long ttl, int size) {
+			this.ttl = ttl;
+			int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, size / MIN_SEGMENT_SIZE)));
+			this.segments = new Segment[count];
+			this.mask = count - 1;
+			for(int i = 0; i < count; i++) {
+				segments[i] = new Segment(Math.max(1, size / count));
+			}
+		}
+
+		Result get(LocalArgumentsKey key, long now) {
+			return this.segment(key).get(key, now);
+		}
+
+		void put(LocalArgumentsKey key, Result result, long now) {
+			this.segment(key).put(key, new Entry(result, now + ttl));
+		}
+
+		void clear() {
+			for(Segment segment : segments) {
+				segment.clear();
+			}
+		}
+
+		private Segment segment(LocalArgumentsKey key) {
+			int h = key.hashCode();
+			return segments[(h ^ (h >>> 16)) & mask];
+		}
+
+	}
+
+	/**
+	 * 一个分段的SLRU, 两个区都按访问顺序排列, 第一个是最久未使用的
+	 */
+	private static class Segment {
+
+		private final int capacity;
+
+		private final int protectedCapacity;
+
+		private final LinkedHashMap<LocalArgumentsKey, Entry> probation = new LinkedHashMap<LocalArgumentsKey, Entry>(16, 0.75f, true);
+
+		private final LinkedHashMap<LocalArgumentsKey, Entry> protect = new LinkedHashMap<LocalArgumentsKey, Entry>(16, 0.75f, true);
+
+		Segment(int capacity) {
+			this.capacity = capacity;
+			this.protectedCapacity = Math.max(1, capacity * 4 / 5);
+		}
+
+		synchronized Result get(LocalArgumentsKey key, long now) {
+			Entry entry = protect.get(key);
+			if(entry == null) {
+				entry = probation.remove(key);
+				if(entry == null) {
+					return null;
+				}
+				if(entry.expireAt > now) {
+					// 第二次命中, 升到保护区
+					protect.put(key, entry);
+					this.demoteOverflow();
+				}
+			}
+			if(entry.expireAt <= now) {
+				protect.remove(key);
+				return null;
+			}
+			return entry.result;
+		}
+
+		synchronized void put(LocalArgumentsKey key, Entry entry) {
+			if(protect.containsKey(key)) {
+				protect.put(key, entry);
+				return ;
+			}
+			probation.put(key, entry);
+			while(probation.size() + protect.size() > capacity) {
+				Map<LocalArgumentsKey, Entry> victims = probation.isEmpty()? protect: probation;
+				Iterator<LocalArgumentsKey> eldest = victims.keySet().iterator();
+				eldest.next();
+				eldest.remove();
+			}
+		}
+
+		synchronized void clear() {
+			probation.clear();
+			protect.clear();
+		}
+
+		private void demoteOverflow() {
+			while(protect.size() > protectedCapacity) {
+				Iterator<Map.Entry<LocalArgumentsKey, Entry>> eldest = protect.entrySet().iterator();
+				Map.Entry<LocalArgumentsKey, Entry> demoted = eldest.next();
+				eldest.remove();
+				probation.put(demoted.getKey(), demoted.getValue());
+			}
+		}
+
+	}
+
+	private static class Entry {
+
+		final Result result;
+
+		final long expireAt;
+
+		Entry(Result result, long expireAt) {
+			this.result = result;
+			this.expireAt = expireAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.api.common.dubbo;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.alibaba.dubbo.common.URL;
+
+/**
+ * 重试预算(令牌桶), 每个interface[-group]一个, 配置取第一个reference的
+ * <p>
+ * 每个请求存入ratio个令牌, 每秒另外有minPerSecond个保底令牌; 令牌只在最近WINDOW_SECONDS秒内有效.
+ * 本地失败回退远程、failover的每次重试都要先取一个令牌, 取不到时不再重试, 直接抛出最后一次的异常;
+ * 本地provider变慢时, 重试量最多是请求量的ratio倍(加上保底), 不会把远程集群也压垮.
+ * 配置方式:
+ * <pre>
+ * &lt;dubbo:reference ...&gt;
+ *     &lt;dubbo:parameter key="local.retry.budget" value="true"/&gt;   &lt;!-- false关闭, 不限制重试 --&gt;
+ *     &lt;dubbo:parameter key="local.retry.ratio" value="0.1"/&gt;     &lt;!-- 重试最多占请求量的10% --&gt;
+ *     &lt;dubbo:parameter key="local.retry.min" value="10"/&gt;        &lt;!-- 每秒保底重试次数 --&gt;
+ * &lt;/dubbo:reference&gt;
+ * </pre>
+ *
+ * @author sxt
+ */
+public class LocalRetryBudget {
+
+	public static final String BUDGET_KEY = "local.retry.budget";
+
+	public static final String RATIO_KEY = "local.retry.ratio";
+
+	public static final String MIN_KEY = "local.retry.min";
+
+	private static final double DEFAULT_RATIO = 0.1;
+
+	private static final int DEFAULT_MIN = 10;
+
+	private static final int WINDOW_SECONDS = 10;
+
+	// interface[-group] : LocalRetryBudget
+	private static final ConcurrentHashMap<String, LocalRetryBudget> BUDGETS = new ConcurrentHashMap<String, LocalRetryBudget>();
+
+	private final boolean enabled;
+
+	private final double ratio;
+
+	private final int minPerSecond;
+
+	// 每秒一格, 记录这一秒的请求数和重试数; seconds记录格子当前对应的秒
+	private final AtomicLongArray seconds = new AtomicLongArray(WINDOW_SECONDS);
+
+	private final AtomicLongArray requests = new AtomicLongArray(WINDOW_SECONDS);
+
+	private final AtomicLongArray retries = new AtomicLongArray(WINDOW_SECONDS);
+
+	private final LongAdder retried = new LongAdder();
+
+	private final LongAdder rejected = new LongAdder();
+
+	LocalRetryBudget(URL url) {
+		this.enabled = url.getParameter(BUDGET_KEY, true);
+		this.ratio = Math.max(0, url.getParameter(RATIO_KEY, DEFAULT_RATIO));
+		this.minPerSecond = Math.max(0, url.getParameter(MIN_KEY, DEFAULT_MIN));
+	}
+
+	/**
+	 * 同一个接口的reference共用一个预算
+	 */
+	public static LocalRetryBudget of(String interfaceKey, URL url) {
+		LocalRetryBudget budget = BUDGETS.get(interfaceKey);
+		if(budget == null) {
+			BUDGETS.putIfAbsent(interfaceKey, new LocalRetryBudget(url));
+			budget = BUDGETS.get(interfaceKey);
+		}
+		return budget;
+	}
+
+	/**
+	 * interface[-group] : 预算状态
+	 */
+	public static Map<String, String> snapshotAll() {
+		Map<String, String> snapshots = new TreeMap<String, String>();
+		for(Map.Entry<String, LocalRetryBudget> entry : BUDGETS.entrySet()) {
+			snapshots.put(entry.getKey(), entry.getValue().toString());
+		}
+		return snapshots;
+	}
+
+	/**
+	 * 每个请求调用一次(重试不算)
+	 */
+	public void onRequest() {
+		if(enabled) {
+			requests.incrementAndGet(this.slot(System.currentTimeMillis() / 1000));
+		}
+	}
+
+	/**
+	 * 取一个重试令牌, 取不到返回false
+	 */
+	public boolean tryRetry() {
+		if(!enabled) {
+			retried.increment();
+			return true;
+		}
+		long second = System.currentTimeMillis() / 1000;
+		int slot = this.slot(second);
+		if(this.balance(second) < 1) {
+			rejected.increment();
+			return false;
+		}
+		retries.incrementAndGet(slot);
+		retried.increment();
+		return true;
+	}
+
+	/**
+	 * 剩余的令牌数, 并发取令牌时可能略微超出
+	 */
+	public long getRemaining() {
+		return enabled? (long) Math.max(0, this.balance(System.currentTimeMillis() / 1000)): Long.MAX_VALUE;
+	}
+
+	public long getRetried() {
+		return retried.sum();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	private double balance(long second) {
+		long requestCount = 0;
+		long retryCount = 0;
+		for(int i = 0; i < WINDOW_SECONDS; i++) {
+			if(second - seconds.get(i) < WINDOW_SECONDS) {
+				requestCount += requests.get(i);
+				retryCount += retries.get(i);
+			}
+		}
+		return (double) minPerSecond * WINDOW_SECONDS + ratio * requestCount - retryCount;
+	}
+
+	/**
+	 * 当前秒对应的格子, 格子里是上一轮的数据时先清零
+	 */
+	private int slot(long second) {
+		int slot = (int) (second % WINDOW_SECONDS);
+		long current = seconds.get(slot);
+		if(current != second && seconds.compareAndSet(slot, current, second)) {
+			requests.set(slot, 0);
+			retries.set(slot, 0);
+		}
+		return slot;
+	}
+
+	@Override
+	public String toString() {
+		if(!enabled) {
+			return "不限制, 重试" + retried.sum() + "次";
+		}
+		return "剩余" + this.getRemaining() + ", 重试" + retried.sum() + "次, 拒绝" + rejected.sum() + "次" //
+				+ " (ratio=" + ratio + ", min=" + minPerSecond + "/s)";
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.api.common.dubbo;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.alibaba.dubbo.rpc.Invoker;
+
+/**
+ * 一条可以直接使用的本地路由: 本地地址 + 已经连接好的Invoker + 熔断器 + 负载统计
+ *
+ * @author sxt
+ */
+public final class LocalRoute {
+
+	private final LocalEndpoint endpoint;
+
+	// 只包含本地Invoker的list, 直接作为list()的返回值
+	private final List<Invoker<Object>> invokers;
+
+	private final LocalCircuitBreaker breaker;
+
+	// 由LocalBreakerInvoker记录, LocalLoadBalance按它选择
+	private final LocalLoadStats load;
+
+	// 对冲请求的本地耗时, 每个路由单独计算p95
+	private final LatencyWindow latency = new LatencyWindow(0.95);
+
+	// 最近一次路由到本地的时间, 空闲回收用
+	private volatile long lastAccess = System.currentTimeMillis();
+
+	public LocalRoute(LocalEndpoint endpoint, Invoker<Object> invoker, LocalCircuitBreaker breaker) {
+		this(endpoint, invoker, breaker, new LocalLoadStats());
+	}
+
+	public LocalRoute(LocalEndpoint endpoint, Invoker<Object> invoker, LocalCircuitBreaker breaker, LocalLoadStats load) {
+		this.endpoint = endpoint;
+		this.invokers = Collections.singletonList(invoker);
+		this.breaker = breaker;
+		this.load = load;
+	}
+
+	public LocalEndpoint getEndpoint() {
+		return endpoint;
+	}
+
+	public List<Invoker<Object>> getInvokers() {
+		return invokers;
+	}
+
+	public Invoker<Object> getInvoker() {
+		return invokers.get(0);
+	}
+
+	public LocalCircuitBreaker getBreaker() {
+		return breaker;
+	}
+
+	public LocalLoadStats getLoad() {
+		return load;
+	}
+
+	public LatencyWindow getLatency() {
+		return latency;
+	}
+
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	public void touch() {
+		this.lastAccess = System.currentTimeMillis();
+	}
+
+	@Override
+	public String toString() {
+		return endpoint.toString();
+	}
+
+}
@@ -0,0 +1,308 @@
+package com.api.common.dubbo;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 本地路由统计, 按interface[-group]和方法分组
+ * <p>
+ * 计数用LongAdder, 耗时用LatencyHistogram, 调用线程上只做map查找和自增, 不分配对象;
+ * 通过JMX(com.api.common.dubbo:type=LocalRouting)查看
+ *
+ * @author sxt
+ */
+public class LocalRoutingMetrics implements LocalRoutingMetricsMBean {
+
+	private static final LocalRoutingMetrics INSTANCE = new LocalRoutingMetrics();
+
+	private static final String OBJECT_NAME = "com.api.common.dubbo:type=LocalRouting";
+
+	private Logger logger = Logger.getLogger(this.getClass());
+
+	// interface[-group] : ServiceMetrics
+	private final ConcurrentHashMap<String, ServiceMetrics> services = new ConcurrentHashMap<String, ServiceMetrics>();
+
+	private final LatencyHistogram scan = new LatencyHistogram();
+
+	private LocalRoutingMetrics() {
+	}
+
+	public static LocalRoutingMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	public ServiceMetrics service(String interfaceKey) {
+		ServiceMetrics service = services.get(interfaceKey);
+		if(service == null) {
+			services.putIfAbsent(interfaceKey, new ServiceMetrics());
+			service = services.get(interfaceKey);
+		}
+		return service;
+	}
+
+	public void recordScan(long nanos) {
+		scan.record(nanos);
+	}
+
+	/**
+	 * 注册MBean, 重复调用无影响
+	 */
+	public synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+		} catch (Exception e) {
+			logger.warn("注册本地路由统计MBean", e);
+		}
+	}
+
+	public synchronized void unregister() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			logger.warn("注销本地路由统计MBean", e);
+		}
+	}
+
+	@Override
+	public int getInvokerCount() {
+		return LocalProviderRegistry.getInstance().getInvokerManager().getRoutes().size();
+	}
+
+	@Override
+	public int getLiveInvokerCount() {
+		return LocalProviderRegistry.getInstance().getInvokerManager().getLiveCount();
+	}
+
+	@Override
+	public int getConnectingInvokerCount() {
+		return LocalProviderRegistry.getInstance().getInvokerManager().getConnectingCount();
+	}
+
+	@Override
+	public int getIdleInvokerCount() {
+		return LocalProviderRegistry.getInstance().getInvokerManager().getIdleCount();
+	}
+
+	@Override
+	public long getDroppedTraces() {
+		return LocalRequestTracer.getInstance().getDropped();
+	}
+
+	@Override
+	public String getScanDuration() {
+		return scan.snapshot().toString();
+	}
+
+	@Override
+	public String[] getMethods() {
+		List<String> methods = new ArrayList<String>();
+		for(Map.Entry<String, ServiceMetrics> service : services.entrySet()) {
+			for(String method : service.getValue().methods.keySet()) {
+				methods.add(service.getKey() + "#" + method);
+			}
+		}
+		Collections.sort(methods);
+		return methods.toArray(new String[methods.size()]);
+	}
+
+	@Override
+	public String snapshot(String method) {
+		int index = method.lastIndexOf('#');
+		ServiceMetrics service = index < 0? null: services.get(method.substring(0, index));
+		MethodMetrics metrics = service == null? null: service.methods.get(method.substring(index + 1));
+		if(metrics == null) {
+			return "没有统计【" + method + "】";
+		}
+		return method + System.lineSeparator() + metrics + System.lineSeparator() + "路由开销: " + service.overhead.snapshot();
+	}
+
+	@Override
+	public String[] snapshotAll() {
+		String[] methods = this.getMethods();
+		String[] snapshots = new String[methods.length];
+		for(int i = 0; i < methods.length; i++) {
+			snapshots[i] = this.snapshot(methods[i]);
+		}
+		return snapshots;
+	}
+
+	@Override
+	public String[] getRetryBudgets() {
+		List<String> budgets = new ArrayList<String>();
+		for(Map.Entry<String, String> entry : LocalRetryBudget.snapshotAll().entrySet()) {
+			budgets.add(entry.getKey() + ": " + entry.getValue());
+		}
+		return budgets.toArray(new String[budgets.size()]);
+	}
+
+	@Override
+	public void reset() {
+		for(ServiceMetrics service : services.values()) {
+			service.overhead.reset();
+			for(MethodMetrics method : service.methods.values()) {
+				method.reset();
+			}
+		}
+		scan.reset();
+	}
+
+	/**
+	 * 一个reference的统计, InterceptInvoker构造时取一次
+	 */
+	public static class ServiceMetrics {
+
+		// methodName : MethodMetrics
+		private final ConcurrentHashMap<String, MethodMetrics> methods = new ConcurrentHashMap<String, MethodMetrics>();
+
+		// list()中路由判断的耗时
+		private final LatencyHistogram overhead = new LatencyHistogram();
+
+		public MethodMetrics method(String methodName) {
+			MethodMetrics method = methods.get(methodName);
+			if(method == null) {
+				methods.putIfAbsent(methodName, new MethodMetrics());
+				method = methods.get(methodName);
+			}
+			return method;
+		}
+
+		public void recordOverhead(long nanos) {
+			overhead.record(nanos);
+		}
+
+	}
+
+	public static class MethodMetrics {
+
+		private final LongAdder localCalls = new LongAdder();
+
+		private final LongAdder localErrors = new LongAdder();
+
+		private final LongAdder remoteCalls = new LongAdder();
+
+		private final LongAdder fallbacks = new LongAdder();
+
+		private final LongAdder hedges = new LongAdder();
+
+		private final LongAdder cacheHits = new LongAdder();
+
+		private final LongAdder cacheMisses = new LongAdder();
+
+		// 开启请求合并的方法: 发出的调用, 合并到进行中调用的请求, 等待者已满自己发出的请求
+		private final LongAdder coalesceLeaders = new LongAdder();
+
+		private final LongAdder coalesced = new LongAdder();
+
+		private final LongAdder coalesceOverflows = new LongAdder();
+
+		private final LatencyHistogram local = new LatencyHistogram();
+
+		private final LatencyHistogram remote = new LatencyHistogram();
+
+		private final LatencyHistogram fallback = new LatencyHistogram();
+
+		public void recordLocal(long nanos) {
+			localCalls.increment();
+			local.record(nanos);
+		}
+
+		/**
+		 * 本地调用失败, 耗时也算在本地里
+		 */
+		public void recordLocalError(long nanos) {
+			localErrors.increment();
+			this.recordLocal(nanos);
+		}
+
+		public void recordRemote(long nanos) {
+			remoteCalls.increment();
+			remote.record(nanos);
+		}
+
+		public void recordFallback(long nanos) {
+			fallbacks.increment();
+			fallback.record(nanos);
+		}
+
+		public void recordHedge() {
+			hedges.increment();
+		}
+
+		public void recordCache(boolean hit) {
+			if(hit) {
+				cacheHits.increment();
+			}
+			else {
+				cacheMisses.increment();
+			}
+		}
+
+		public void recordCoalesce(boolean leader) {
+			if(leader) {
+				coalesceLeaders.increment();
+			}
+			else {
+				coalesced.increment();
+			}
+		}
+
+		public void recordCoalesceOverflow() {
+			coalesceOverflows.increment();
+		}
+
+		void reset() {
+			localCalls.reset();
+			localErrors.reset();
+			remoteCalls.reset();
+			fallbacks.reset();
+			hedges.reset();
+			cacheHits.reset();
+			cacheMisses.reset();
+			coalesceLeaders.reset();
+			coalesced.reset();
+			coalesceOverflows.reset();
+			local.reset();
+			remote.reset();
+			fallback.reset();
+		}
+
+		@Override
+		public String toString() {
+			return "本地: " + localCalls.sum() + "次, 失败" + localErrors.sum() + "次, " + local.snapshot() + System.lineSeparator() //
+					+ "远程: " + remoteCalls.sum() + "次, " + remote.snapshot() + System.lineSeparator() //
+					+ "回退远程: " + fallbacks.sum() + "次, " + fallback.snapshot() + System.lineSeparator() //
+					+ "对冲: " + hedges.sum() + "次" + System.lineSeparator() //
+					+ "结果缓存: 命中" + cacheHits.sum() + "次, 未命中" + cacheMisses.sum() + "次" + System.lineSeparator() //
+					+ "请求合并: " + this.coalesceSnapshot();
+		}
+
+		private String coalesceSnapshot() {
+			long leaders = coalesceLeaders.sum();
+			long joined = coalesced.sum();
+			long overflows = coalesceOverflows.sum();
+			long total = leaders + joined + overflows;
+			return "发出" + (leaders + overflows) + "次, 合并" + joined + "次, 等待者已满" + overflows + "次, 合并率" //
+					+ String.format("%.1f%%", total == 0? 0.0: joined * 100.0 / total);
+		}
+
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.api.common.dubbo;
+
+/**
+ * 本地路由统计的JMX接口, 耗时单位微秒
+ *
+ * @author sxt
+ */
+public interface LocalRoutingMetricsMBean {
+
+	/**
+	 * 已连接的本地Invoker数
+	 */
+	int getInvokerCount();
+
+	int getLiveInvokerCount();
+
+	int getConnectingInvokerCount();
+
+	int getIdleInvokerCount();
+
+	long getDroppedTraces();
+
+	/**
+	 * 扫描/读取注册信息并重建路由的耗时
+	 */
+	String getScanDuration();
+
+	/**
+	 * interface[-group]#method
+	 */
+	String[] getMethods();
+
+	/**
+	 * 单个方法的调用次数和耗时分位数
+	 *
+	 * @param method interface[-group]#method
+	 */
+	String snapshot(String method);
+
+	String[] snapshotAll();
+
+	/**
+	 * 每个interface[-group]的重试预算: 剩余令牌、重试次数、被拒绝的重试次数
+	 */
+	String[] getRetryBudgets();
+
+	void reset();
+
+}
@@ -0,0 +1,85 @@
+package com.api.common.dubbo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地路由快照, 不可变
+ * <p>
+ * 只包含Invoker已经连接好的本地地址; 注册表重建后整体替换(volatile引用), 调用线程只做一次hash查找, 不加锁.
+ * 按reference的路由key(interface[-group]?参数)查找, 配置不同的reference使用各自的Invoker
+ *
+ * @author sxt
+ */
+public final class LocalRoutingTable {
+
+	public static final LocalRoutingTable EMPTY = new LocalRoutingTable(Collections.<String, List<LocalRoute>>emptyMap());
+
+	// interface[-group]?参数 : LocalRoute, 顺序同注册表中的本地地址(同进程的在前, 其次最新的)
+	private final Map<String, List<LocalRoute>> routes;
+
+	private LocalRoutingTable(Map<String, List<LocalRoute>> routes) {
+		this.routes = routes;
+	}
+
+	/**
+	 * 首选的本地路由, 没有返回null
+	 */
+	public LocalRoute get(String referKey) {
+		List<LocalRoute> referRoutes = routes.get(referKey);
+		return referRoutes == null? null: referRoutes.get(0);
+	}
+
+	/**
+	 * 全部已经连接好的本地路由, 没有返回空list
+	 */
+	public List<LocalRoute> getAll(String referKey) {
+		List<LocalRoute> referRoutes = routes.get(referKey);
+		return referRoutes == null? Collections.<LocalRoute>emptyList(): referRoutes;
+	}
+
+	public boolean isEmpty() {
+		return routes.isEmpty();
+	}
+
+	public int size() {
+		return routes.size();
+	}
+
+	public Map<String, List<LocalRoute>> routes() {
+		return Collections.unmodifiableMap(routes);
+	}
+
+	/**
+	 * 重建路由, 只保留当前地址已经连接好的路由
+	 *
+	 * @param endpoints interface[-group] : 当前生效的本地地址
+	 * @param referKeys 订阅的reference的路由key
+	 * @param readyRoutes interface[-group]$port?参数 : 已经连接好的路由
+	 */
+	public static LocalRoutingTable build(Map<String, List<LocalEndpoint>> endpoints, Collection<String> referKeys, Map<String, LocalRoute> readyRoutes) {
+		Map<String, List<LocalRoute>> routes = new HashMap<String, List<LocalRoute>>();
+		for(String referKey : referKeys) {
+			List<LocalEndpoint> interfaceEndpoints = endpoints.get(referKey.substring(0, referKey.indexOf('?')));
+			if(interfaceEndpoints == null) {
+				continue ;
+			}
+			List<LocalRoute> referRoutes = new ArrayList<LocalRoute>(interfaceEndpoints.size());
+			for(LocalEndpoint endpoint : interfaceEndpoints) {
+				LocalRoute route = readyRoutes.get(LocalInvokerManager.routeKey(endpoint.getLocalKey(), referKey));
+				if(route != null) {
+					referRoutes.add(route);
+				}
+			}
+			if(!referRoutes.isEmpty()) {
+				routes.put(referKey, Collections.unmodifiableList(referRoutes));
+			}
+		}
+		return routes.isEmpty()? EMPTY: new LocalRoutingTable(routes);
+	}
+
+}
@@ -0,0 +1,379 @@
+package com.api.common.dubbo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.serialize.ObjectOutput;
+import com.alibaba.dubbo.common.utils.ReflectUtils;
+import com.alibaba.dubbo.rpc.Invocation;
+
+/**
+ * 流量录制, 按reference开启, 录下来的文件用LocalTrafficReplay回放到本地provider
+ * <p>
+ * 调用线程只把请求的引用和耗时放进无锁环形缓冲区(满了直接丢弃), 序列化和写文件都在整个进程共用的一个后台线程里做;
+ * 后台线程空闲时park, 由写入方unpark, 不轮询, 没有录制时退出. 未刷盘的数据超过64KB或者关闭录制时flush.
+ * 参数对象在写入前被业务修改的话, 录到的是修改后的值. 文件只追加, 格式:
+ * <pre>
+ * header: magic(int) | version(int) | 开始时间(long, 毫秒)
+ * record: length(int) | payload(length字节)
+ * payload: 距开始的时间(long, 纳秒) | 耗时(long, 纳秒) | hessian2(interface, method, 参数类型描述, 参数...)
+ * </pre>
+ * 配置(reference参数):
+ * <pre>
+ * local.capture         是否录制, 默认false
+ * local.capture.dir     录制文件目录, 默认 java.io.tmpdir/dubbo-local-capture, 文件名: interface[-group]-开始时间.cap
+ * local.capture.sample  采样率(0~1), 默认1
+ * local.capture.max     文件大小上限(MB), 超过后停止录制, 默认512
+ * </pre>
+ *
+ * @author sxt
+ */
+public class LocalTrafficCapture {
+
+	private static Logger logger = Logger.getLogger(LocalTrafficCapture.class);
+
+	public static final String CAPTURE_KEY = "local.capture";
+
+	public static final String CAPTURE_DIR_KEY = "local.capture.dir";
+
+	public static final String CAPTURE_SAMPLE_KEY = "local.capture.sample";
+
+	public static final String CAPTURE_MAX_KEY = "local.capture.max";
+
+	public static final String FILE_SUFFIX = ".cap";
+
+	static final int MAGIC = 0x4c434150;
+
+	static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 4096;
+
+	// 未刷盘的数据超过这个大小时flush
+	private static final int FLUSH_BYTES = 64 * 1024;
+
+	// 每个录制一轮最多写多少条, 其他录制不会被饿死
+	private static final int DRAIN_BATCH = 256;
+
+	private static final long CLOSE_WAIT_MILLIS = 1000;
+
+	// 进行中的录制, 只有后台线程写文件
+	private static final List<LocalTrafficCapture> CAPTURES = new CopyOnWriteArrayList<LocalTrafficCapture>();
+
+	// 共用的后台线程, 在类锁里启动和退出; 没有录制时为null
+	private static volatile Thread writer;
+
+	// 后台线程准备park, 写入方发布后看到true时unpark
+	private static volatile boolean sleeping;
+
+	private final File file;
+
+	private final URL url;
+
+	private final double sampleRate;
+
+	private final long maxBytes;
+
+	private final long baseNanos = System.nanoTime();
+
+	private final Slot[] slots = new Slot[BUFFER_SIZE];
+
+	private final int mask = BUFFER_SIZE - 1;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private long head = 0;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong written = new AtomicLong();
+
+	private volatile boolean running = true;
+
+	// 后台线程关闭文件后释放
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	private DataOutputStream out;
+
+	private long bytes;
+
+	private long unflushed;
+
+	private LocalTrafficCapture(File file, URL url, double sampleRate, long maxBytes) throws IOException {
+		this.file = file;
+		this.url = url;
+		this.sampleRate = sampleRate;
+		this.maxBytes = maxBytes;
+		for(int i = 0; i < BUFFER_SIZE; i++) {
+			slots[i] = new Slot(i);
+		}
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), FLUSH_BYTES));
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+		this.out.writeLong(System.currentTimeMillis());
+		this.bytes = 16;
+		this.unflushed = 16;
+		register(this);
+	}
+
+	private static synchronized void register(LocalTrafficCapture capture) {
+		CAPTURES.add(capture);
+		if(writer != null) {
+			return ;
+		}
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				LocalTrafficCapture.drainAll();
+			}
+		}, "local-traffic-capture");
+		thread.setDaemon(true);
+		writer = thread;
+		thread.start();
+	}
+
+	/**
+	 * 没有录制时返回false, 后台线程退出
+	 */
+	private static synchronized boolean keepWriting() {
+		if(CAPTURES.isEmpty()) {
+			writer = null;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * reference没有开启录制或者文件创建失败时返回null
+	 */
+	public static LocalTrafficCapture open(String interfaceKey, URL url) {
+		if(!url.getParameter(CAPTURE_KEY, false)) {
+			return null;
+		}
+		File dir = new File(url.getParameter(CAPTURE_DIR_KEY, System.getProperty("java.io.tmpdir") + File.separator + "dubbo-local-capture"));
+		File file = new File(dir, interfaceKey + "-" + System.currentTimeMillis() + FILE_SUFFIX);
+		try {
+			if(!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("创建目录失败: " + dir.getPath());
+			}
+			LocalTrafficCapture capture = new LocalTrafficCapture(file, url, url.getParameter(CAPTURE_SAMPLE_KEY, 1.0), //
+					url.getParameter(CAPTURE_MAX_KEY, 512) * 1024L * 1024L);
+			logger.info("录制【" + interfaceKey + "】的请求: " + file.getPath());
+			return capture;
+		} catch (IOException e) {
+			logger.error("录制【" + interfaceKey + "】的请求, 创建文件失败: " + file.getPath(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * 请求完成后记录一次, 调用线程上不序列化
+	 *
+	 * @param start 请求开始时的System.nanoTime()
+	 */
+	public void record(Class<?> type, Invocation invocation, long start) {
+		long duration = System.nanoTime() - start;
+		if(!running || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+			return ;
+		}
+		Slot slot;
+		long seq;
+		for(;;) {
+			seq = tail.get();
+			slot = slots[(int) (seq & mask)];
+			if(slot.sequence != seq) {
+				// 后台线程来不及写, 丢弃
+				dropped.incrementAndGet();
+				return ;
+			}
+			if(tail.compareAndSet(seq, seq + 1)) {
+				break ;
+			}
+		}
+		slot.type = type;
+		slot.methodName = invocation.getMethodName();
+		slot.parameterTypes = invocation.getParameterTypes();
+		slot.arguments = invocation.getArguments();
+		slot.offset = start - baseNanos;
+		slot.duration = duration;
+		// 发布
+		slot.sequence = seq + 1;
+		if(sleeping) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * 停止录制, 等待已经放进缓冲区的请求写完、文件flush并关闭(最多1秒)
+	 */
+	public void close() {
+		this.running = false;
+		LockSupport.unpark(writer);
+		try {
+			closed.await(CLOSE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getWritten() {
+		return written.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	private static void drainAll() {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+		for(;;) {
+			boolean busy = false;
+			for(LocalTrafficCapture capture : CAPTURES) {
+				busy |= capture.drain(buffer);
+			}
+			if(busy) {
+				continue ;
+			}
+			if(!keepWriting()) {
+				return ;
+			}
+			// 先声明要park再检查一次, 写入方发布后能看到sleeping, 不会漏掉唤醒
+			sleeping = true;
+			if(!pending()) {
+				LockSupport.park(LocalTrafficCapture.class);
+			}
+			sleeping = false;
+		}
+	}
+
+	private static boolean pending() {
+		for(LocalTrafficCapture capture : CAPTURES) {
+			if(!capture.running || capture.slots[(int) (capture.head & capture.mask)].sequence == capture.head + 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 写一批已经发布的请求, 停止录制并且写完后关闭文件; 只在后台线程调用
+	 *
+	 * @return 是否写了或者关闭了
+	 */
+	private boolean drain(ByteArrayOutputStream buffer) {
+		try {
+			for(int i = 0; i < DRAIN_BATCH; i++) {
+				Slot slot = slots[(int) (head & mask)];
+				if(slot.sequence != head + 1) {
+					if(running) {
+						return i > 0;
+					}
+					this.finish();
+					return true;
+				}
+				try {
+					this.write(buffer, slot);
+				} catch (IOException e) {
+					// 参数不能序列化, 只丢这一条
+					dropped.incrementAndGet();
+					logger.warn("录制请求: " + slot.type.getName() + "." + slot.methodName, e);
+				}
+				slot.type = null;
+				slot.methodName = null;
+				slot.parameterTypes = null;
+				slot.arguments = null;
+				// 释放给下一轮写入
+				slot.sequence = head + slots.length;
+				head++;
+				if(unflushed >= FLUSH_BYTES) {
+					out.flush();
+					unflushed = 0;
+				}
+				if(bytes >= maxBytes && running) {
+					logger.warn("录制文件超过上限" + (maxBytes / 1024 / 1024) + "MB, 停止录制: " + file.getPath());
+					this.running = false;
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			logger.error("写录制文件, 停止录制: " + file.getPath(), e);
+			this.running = false;
+			this.finish();
+			return true;
+		}
+	}
+
+	private void finish() {
+		CAPTURES.remove(this);
+		try {
+			out.close();
+		} catch (IOException e) {
+			logger.warn("关闭录制文件: " + file.getPath(), e);
+		}
+		closed.countDown();
+		logger.info("录制结束: " + file.getPath() + ", 写入" + written.get() + "条, 丢弃" + dropped.get() + "条");
+	}
+
+	private void write(ByteArrayOutputStream buffer, Slot slot) throws IOException {
+		buffer.reset();
+		DataOutputStream header = new DataOutputStream(buffer);
+		header.writeLong(slot.offset);
+		header.writeLong(slot.duration);
+		ObjectOutput output = SharedMemoryChannel.serialize(url, buffer);
+		output.writeUTF(slot.type.getName());
+		output.writeUTF(slot.methodName);
+		output.writeUTF(ReflectUtils.getDesc(slot.parameterTypes));
+		Object[] args = slot.arguments;
+		for(int i = 0; args != null && i < args.length; i++) {
+			output.writeObject(args[i]);
+		}
+		output.flushBuffer();
+		out.writeInt(buffer.size());
+		buffer.writeTo(out);
+		bytes += 4 + buffer.size();
+		unflushed += 4 + buffer.size();
+		written.incrementAndGet();
+	}
+
+	private static class Slot {
+
+		// == 写入序号: 可以写入; == 写入序号+1: 可以读取
+		volatile long sequence;
+
+		Class<?> type;
+
+		String methodName;
+
+		Class<?>[] parameterTypes;
+
+		Object[] arguments;
+
+		long offset;
+
+		long duration;
+
+		Slot(long sequence) {
+			this.sequence = sequence;
+		}
+
+	}
+
+}
@@ -0,0 +1,200 @@
+package com.api.common.dubbo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.alibaba.dubbo.common.Constants;
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.extension.ExtensionLoader;
+import com.alibaba.dubbo.common.serialize.ObjectInput;
+import com.alibaba.dubbo.common.utils.ReflectUtils;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Protocol;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+
+/**
+ * 回放LocalTrafficCapture录制的请求, 压测本地provider
+ * <p>
+ * 按录制时的请求间隔(除以倍速)发送, 倍速为0时不等待, 尽快发送; 同时进行中的请求不超过线程数.
+ * 耗时从计划发送时间算起, 发送落后于计划时排队的时间也算在内, 不会因为provider变慢而少报.
+ * 接口和参数的类需要在classpath上:
+ * <pre>
+ * java -cp 应用的jar:dubbo-sxt.jar:依赖 com.api.common.dubbo.LocalTrafficReplay 录制文件 127.0.0.1:20880 [倍速=1] [线程数=16] [group] [version]
+ * </pre>
+ *
+ * @author sxt
+ */
+public class LocalTrafficReplay {
+
+	private final String address;
+
+	private final double speed;
+
+	private final int threads;
+
+	private final String group;
+
+	private final String version;
+
+	// interface : Invoker
+	private final Map<String, Invoker<?>> invokers = new HashMap<String, Invoker<?>>();
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	// 录制时的耗时, 对比用
+	private final LatencyHistogram captured = new LatencyHistogram();
+
+	private final LongAdder bizErrors = new LongAdder();
+
+	private final LongAdder rpcErrors = new LongAdder();
+
+	public LocalTrafficReplay(String address, double speed, int threads, String group, String version) {
+		this.address = address;
+		this.speed = speed;
+		this.threads = threads;
+		this.group = group;
+		this.version = version;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2) {
+			System.err.println("用法: LocalTrafficReplay 录制文件 host:port [倍速=1, 0表示尽快发送] [线程数=16] [group] [version]");
+			System.exit(1);
+		}
+		double speed = args.length > 2? Double.parseDouble(args[2]): 1;
+		int threads = args.length > 3? Integer.parseInt(args[3]): 16;
+		LocalTrafficReplay replay = new LocalTrafficReplay(args[1], speed, threads, args.length > 4? args[4]: null, args.length > 5? args[5]: null);
+		try {
+			System.out.println(replay.replay(new File(args[0])));
+		} finally {
+			replay.destroy();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * 回放整个文件, 返回报告
+	 */
+	public String replay(File file) throws Exception {
+		final Semaphore permits = new Semaphore(threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		URL serializationUrl = URL.valueOf("dubbo://" + address);
+		long count = 0;
+		long start = System.nanoTime();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			if(in.readInt() != LocalTrafficCapture.MAGIC || in.readInt() != LocalTrafficCapture.VERSION) {
+				throw new IOException("不是录制文件或者版本不兼容: " + file.getPath());
+			}
+			in.readLong();
+			for(;;) {
+				byte[] payload;
+				try {
+					payload = new byte[in.readInt()];
+				} catch (EOFException e) {
+					break ;
+				}
+				in.readFully(payload);
+				ByteBuffer header = ByteBuffer.wrap(payload);
+				long offset = header.getLong(0);
+				captured.record(header.getLong(8));
+				ObjectInput input = SharedMemoryChannel.deserialize(serializationUrl, payload, 16);
+				final Invoker<?> invoker = this.invoker(input.readUTF());
+				String methodName = input.readUTF();
+				Class<?>[] parameterTypes = ReflectUtils.desc2classArray(input.readUTF());
+				Object[] arguments = new Object[parameterTypes.length];
+				for(int i = 0; i < arguments.length; i++) {
+					arguments[i] = input.readObject(parameterTypes[i]);
+				}
+				final RpcInvocation invocation = new RpcInvocation(methodName, parameterTypes, arguments);
+				// 计划发送时间
+				final long scheduled = speed > 0? start + (long) (offset / speed): System.nanoTime();
+				long wait;
+				while((wait = scheduled - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				permits.acquire();
+				final long sendStart = speed > 0? scheduled: System.nanoTime();
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							Result result = invoker.invoke(invocation);
+							if(result.hasException()) {
+								bizErrors.increment();
+							}
+						} catch (Exception e) {
+							rpcErrors.increment();
+						} finally {
+							latency.record(System.nanoTime() - sendStart);
+							permits.release();
+						}
+					}
+				});
+				count++;
+			}
+			permits.acquire(threads);
+		} finally {
+			in.close();
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		long elapsed = System.nanoTime() - start;
+		return "回放" + file.getName() + " -> " + address + ", 倍速" + speed + ", 线程" + threads + System.lineSeparator() //
+				+ "请求: " + count + "次, 业务异常" + bizErrors.sum() + "次, 调用失败" + rpcErrors.sum() + "次" + System.lineSeparator() //
+				+ "耗时: " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms, 吞吐量: " + String.format("%.1f", count * 1e9 / Math.max(1, elapsed)) + "/s" + System.lineSeparator() //
+				+ "回放延迟: " + latency.snapshot() + System.lineSeparator() //
+				+ "录制延迟: " + captured.snapshot();
+	}
+
+	/**
+	 * 直接指定接口的Invoker, 不通过dubbo协议连接; benchmark中使用
+	 */
+	void setInvoker(String interfaceName, Invoker<?> invoker) {
+		invokers.put(interfaceName, invoker);
+	}
+
+	public void destroy() {
+		for(Invoker<?> invoker : invokers.values()) {
+			invoker.destroy();
+		}
+		invokers.clear();
+	}
+
+	private Invoker<?> invoker(String interfaceName) {
+		Invoker<?> invoker = invokers.get(interfaceName);
+		if(invoker == null) {
+			StringBuilder url = new StringBuilder("dubbo://").append(address).append("/").append(interfaceName) //
+					.append("?").append(Constants.INTERFACE_KEY).append("=").append(interfaceName) //
+					.append("&").append(Constants.CHECK_KEY).append("=false");
+			if(StringUtils.isNotBlank(group)) {
+				url.append("&").append(Constants.GROUP_KEY).append("=").append(group);
+			}
+			if(StringUtils.isNotBlank(version)) {
+				url.append("&").append(Constants.VERSION_KEY).append("=").append(version);
+			}
+			Protocol protocol = ExtensionLoader.getExtensionLoader(Protocol.class).getExtension("dubbo");
+			invoker = protocol.refer(ReflectUtils.forName(interfaceName), URL.valueOf(url.toString()));
+			invokers.put(interfaceName, invoker);
+		}
+		return invoker;
+	}
+
+}
@@ -0,0 +1,557 @@
+package com.api.common.dubbo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存映射的二进制注册文件, 替代每个应用一个.properties通知文件
+ * <p>
+ * 文件格式:
+ * <pre>
+ * header(64字节): magic(int) | version(int) | slotCount(int) | slotSize(int) | sequence(long) | 保留
+ * slot(512字节):  state(int) | port(int) | updateTime(long) | owner(long) | appLen(short) | app(64) | keyLen(short) | key(...)
+ * </pre>
+ * provider在FileChannel文件锁内原地修改slot, 修改前后各递增一次sequence(奇数表示正在写), sequence和slot之间用storeFence隔开;
+ * consumer只读sequence判断是否变化, 变化时无锁拷贝全部slot(前后loadFence), 前后sequence一致才算读到完整数据.
+ * provider一直打开文件, 发布和续约只加文件锁; consumer轮询时不检查文件, 每秒或者读取全部记录时才检查是否被删除重建.
+ * owner是写入进程的pid, 同一台机器上同一个应用的多个进程只替换/续约自己的slot, 租约也按 应用名@pid 计算.
+ * 续约只在文件锁内更新自己的updateTime, 不改sequence, consumer另外定时读取(leases).
+ * 文件被删除重建时(inode变化)重新映射/打开, generation()递增
+ *
+ * @author sxt
+ */
+public class MappedRegistryFile {
+
+	public static final String FILE_NAME = "registry.dat";
+
+	static final int MAGIC = 0x44535854;
+
+	static final int VERSION = 2;
+
+	static final int HEADER_SIZE = 64;
+
+	static final int SLOT_SIZE = 512;
+
+	static final int SLOT_COUNT = 1024;
+
+	private static final int SEQUENCE_OFFSET = 16;
+
+	private static final int SLOT_STATE = 0;
+
+	private static final int SLOT_PORT = 4;
+
+	private static final int SLOT_UPDATE_TIME = 8;
+
+	private static final int SLOT_OWNER = 16;
+
+	private static final int SLOT_APP = 24;
+
+	private static final int MAX_APP_LENGTH = 64;
+
+	private static final int SLOT_KEY = SLOT_APP + 2 + MAX_APP_LENGTH;
+
+	private static final int MAX_KEY_LENGTH = SLOT_SIZE - SLOT_KEY - 2;
+
+	private static final int MAX_READ_RETRY = 1000;
+
+	// 轮询sequence时检查文件是否被删除重建的间隔
+	private static final long IDENTITY_CHECK_INTERVAL = 1000;
+
+	private static final int STATE_FREE = 0;
+
+	private static final int STATE_USED = 1;
+
+	// 超过这么久没有续约的slot(写入进程已经退出)在发布时回收
+	private static final long STALE_SLOT_MILLIS = 60 * 1000;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// 同一个jvm内FileChannel.lock()重复加锁会抛OverlappingFileLockException
+	private static final Object JVM_WRITE_MONITOR = new Object();
+
+	private final File file;
+
+	private MappedByteBuffer buffer;
+
+	// 映射时文件的标识(inode), 变化说明文件被删除重建了
+	private Object identity;
+
+	private int generation;
+
+	// 上一次检查identity的时间; 读取方法(轮询线程和租约线程)在this上同步
+	private long identityCheckedAt;
+
+	// 发布和续约时一直打开, 文件被删除重建后重新打开; 只在JVM_WRITE_MONITOR内访问
+	private RandomAccessFile writer;
+
+	public MappedRegistryFile(String dirPath) {
+		this.file = new File(dirPath, FILE_NAME);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * 每次(重新)映射文件时递增, sequence相同但generation变化时也要重新读取
+	 */
+	public int generation() {
+		return generation;
+	}
+
+	/**
+	 * 同一个进程中相同应用的记录归为一个实例: 应用名@pid
+	 */
+	public static String instance(String app, long owner) {
+		return app + "@" + owner;
+	}
+
+	/**
+	 * 读取当前sequence, 文件不存在返回-1; 已经映射时只读一个long, 每秒检查一次文件是否被删除重建
+	 */
+	public synchronized long sequence() throws IOException {
+		if(buffer == null || System.currentTimeMillis() - identityCheckedAt >= IDENTITY_CHECK_INTERVAL) {
+			if(!this.map()) {
+				return -1;
+			}
+		}
+		return buffer.getLong(SEQUENCE_OFFSET);
+	}
+
+	/**
+	 * 拷贝全部有效记录, 读到写了一半的数据时重试, 一直读不到完整数据返回null(写进程可能中途退出了)
+	 */
+	public synchronized Snapshot read() throws IOException {
+		if(!this.map()) {
+			return new Snapshot(-1, Collections.<Entry>emptyList());
+		}
+		for(int retry = 0; retry < MAX_READ_RETRY; retry++) {
+			long before = buffer.getLong(SEQUENCE_OFFSET);
+			if((before & 1) == 1) {
+				Thread.yield();
+				continue ;
+			}
+			// slot的读取不能提前到sequence之前
+			MemoryFences.loadFence();
+			List<Entry> entries = new ArrayList<Entry>();
+			for(int i = 0; i < SLOT_COUNT; i++) {
+				int base = HEADER_SIZE + i * SLOT_SIZE;
+				if(buffer.getInt(base + SLOT_STATE) != STATE_USED) {
+					continue ;
+				}
+				String app = this.readString(base + SLOT_APP, MAX_APP_LENGTH);
+				String key = this.readString(base + SLOT_KEY, MAX_KEY_LENGTH);
+				if(app == null || key == null) {
+					continue ;
+				}
+				entries.add(new Entry(app, buffer.getLong(base + SLOT_OWNER), key, buffer.getInt(base + SLOT_PORT), buffer.getLong(base + SLOT_UPDATE_TIME)));
+			}
+			// 也不能推迟到第二次读sequence之后
+			MemoryFences.loadFence();
+			if(buffer.getLong(SEQUENCE_OFFSET) == before) {
+				return new Snapshot(before, entries);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 替换这个进程中应用的全部记录, 同时回收长时间没有续约的slot
+	 *
+	 * @param owner 写入进程的pid
+	 * @param localKeys interface[-group]$port
+	 */
+	public void publish(String app, long owner, Collection<String> localKeys) throws IOException {
+		byte[] appBytes = app.getBytes(UTF8);
+		if(appBytes.length > MAX_APP_LENGTH) {
+			throw new IOException("应用名过长: " + app);
+		}
+		synchronized (JVM_WRITE_MONITOR) {
+			FileChannel channel = this.writeChannel();
+			try {
+				FileLock lock = channel.lock();
+				try {
+					this.initIfNecessary(channel);
+					long sequence = this.beginWrite();
+					try {
+						long now = System.currentTimeMillis();
+						this.freeSlots(appBytes, owner, now);
+						for(String localKey : localKeys) {
+							this.writeSlot(appBytes, owner, localKey, now);
+						}
+					} finally {
+						this.endWrite(sequence);
+					}
+				} finally {
+					lock.release();
+				}
+			} catch (IOException e) {
+				// 下次重新打开
+				this.closeWriter();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * 续约: 更新这个进程中应用全部记录的updateTime
+	 */
+	public void renew(String app, long owner) throws IOException {
+		byte[] appBytes = app.getBytes(UTF8);
+		synchronized (JVM_WRITE_MONITOR) {
+			FileChannel channel = this.writeChannel();
+			try {
+				// 其他进程发布时可能回收并重用过期的slot, 续约也要加锁
+				FileLock lock = channel.lock();
+				try {
+					this.initIfNecessary(channel);
+					long now = System.currentTimeMillis();
+					for(int i = 0; i < SLOT_COUNT; i++) {
+						int base = HEADER_SIZE + i * SLOT_SIZE;
+						if(this.isOwned(base, appBytes, owner)) {
+							buffer.putLong(base + SLOT_UPDATE_TIME, now);
+						}
+					}
+				} finally {
+					lock.release();
+				}
+			} catch (IOException e) {
+				this.closeWriter();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * 每个实例最近一次续约的时间, 不加锁, 读到正在修改的slot时忽略
+	 *
+	 * @return 应用名@pid : updateTime
+	 */
+	public synchronized Map<String, Long> leases() throws IOException {
+		Map<String, Long> leases = new HashMap<String, Long>();
+		if(!this.map()) {
+			return leases;
+		}
+		for(int i = 0; i < SLOT_COUNT; i++) {
+			int base = HEADER_SIZE + i * SLOT_SIZE;
+			if(buffer.getInt(base + SLOT_STATE) != STATE_USED) {
+				continue ;
+			}
+			String app = this.readString(base + SLOT_APP, MAX_APP_LENGTH);
+			if(app == null) {
+				continue ;
+			}
+			String instance = instance(app, buffer.getLong(base + SLOT_OWNER));
+			long updateTime = buffer.getLong(base + SLOT_UPDATE_TIME);
+			Long exists = leases.get(instance);
+			if(exists == null || exists < updateTime) {
+				leases.put(instance, updateTime);
+			}
+		}
+		return leases;
+	}
+
+	/**
+	 * 删除这个进程中应用的全部记录
+	 */
+	public void remove(String app, long owner) throws IOException {
+		this.publish(app, owner, Collections.<String>emptyList());
+	}
+
+	/**
+	 * 不再使用, 关闭文件并释放映射
+	 */
+	public void close() {
+		synchronized (JVM_WRITE_MONITOR) {
+			this.closeWriter();
+			this.buffer = null;
+			this.identity = null;
+		}
+	}
+
+	/**
+	 * 打开的文件被删除重建后重新打开, 文件不存在时创建
+	 */
+	private FileChannel writeChannel() throws IOException {
+		if(writer != null) {
+			Object current = null;
+			try {
+				current = this.identity();
+			} catch (NoSuchFileException e) {
+				// 被删除了, 重新创建
+			}
+			if(current != null && current.equals(identity)) {
+				return writer.getChannel();
+			}
+			this.closeWriter();
+		}
+		this.writer = new RandomAccessFile(file, "rw");
+		return writer.getChannel();
+	}
+
+	private void closeWriter() {
+		if(writer == null) {
+			return ;
+		}
+		try {
+			writer.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		this.writer = null;
+		// 映射和打开的文件一起重建
+		this.buffer = null;
+		this.identity = null;
+	}
+
+	private void writeSlot(byte[] appBytes, long owner, String localKey, long updateTime) throws IOException {
+		byte[] keyBytes = localKey.getBytes(UTF8);
+		if(keyBytes.length > MAX_KEY_LENGTH) {
+			throw new IOException("通知key过长: " + localKey);
+		}
+		LocalEndpoint endpoint = LocalEndpoint.parse(localKey, FILE_NAME, updateTime);
+		if(endpoint == null) {
+			throw new IOException("通知key格式错误: " + localKey);
+		}
+		for(int i = 0; i < SLOT_COUNT; i++) {
+			int base = HEADER_SIZE + i * SLOT_SIZE;
+			if(buffer.getInt(base + SLOT_STATE) == STATE_USED) {
+				continue ;
+			}
+			buffer.putInt(base + SLOT_PORT, endpoint.getPort());
+			buffer.putLong(base + SLOT_UPDATE_TIME, updateTime);
+			buffer.putLong(base + SLOT_OWNER, owner);
+			this.writeString(base + SLOT_APP, appBytes);
+			this.writeString(base + SLOT_KEY, keyBytes);
+			buffer.putInt(base + SLOT_STATE, STATE_USED);
+			return ;
+		}
+		throw new IOException("注册文件已满, slot数量: " + SLOT_COUNT);
+	}
+
+	/**
+	 * 释放自己的slot和长时间没有续约的slot, 其他进程的不动
+	 */
+	private void freeSlots(byte[] appBytes, long owner, long now) {
+		for(int i = 0; i < SLOT_COUNT; i++) {
+			int base = HEADER_SIZE + i * SLOT_SIZE;
+			if(buffer.getInt(base + SLOT_STATE) != STATE_USED) {
+				continue ;
+			}
+			if(this.isOwned(base, appBytes, owner) || now - buffer.getLong(base + SLOT_UPDATE_TIME) > STALE_SLOT_MILLIS) {
+				buffer.putInt(base + SLOT_STATE, STATE_FREE);
+			}
+		}
+	}
+
+	private boolean isOwned(int base, byte[] appBytes, long owner) {
+		return buffer.getInt(base + SLOT_STATE) == STATE_USED && buffer.getLong(base + SLOT_OWNER) == owner //
+				&& this.sameBytes(base + SLOT_APP, appBytes);
+	}
+
+	/**
+	 * sequence变成奇数, 上一个写进程中途退出时sequence可能已经是奇数
+	 */
+	private long beginWrite() {
+		long sequence = buffer.getLong(SEQUENCE_OFFSET);
+		sequence = (sequence & 1) == 0? sequence + 1: sequence + 2;
+		buffer.putLong(SEQUENCE_OFFSET, sequence);
+		// slot的修改不能提前到sequence变成奇数之前
+		MemoryFences.storeFence();
+		return sequence;
+	}
+
+	private void endWrite(long sequence) {
+		// 也不能推迟到sequence变回偶数之后
+		MemoryFences.storeFence();
+		buffer.putLong(SEQUENCE_OFFSET, sequence + 1);
+	}
+
+	/**
+	 * writeChannel()重新打开文件时清空了映射, 这里在文件锁内重新映射
+	 */
+	private void initIfNecessary(FileChannel channel) throws IOException {
+		long size = HEADER_SIZE + (long) SLOT_SIZE * SLOT_COUNT;
+		boolean created = channel.size() < size;
+		if(this.buffer == null || this.buffer.isReadOnly()) {
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			this.identity = this.identity();
+			this.generation++;
+		}
+		if(created || buffer.getInt(0) != MAGIC) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, SLOT_COUNT);
+			buffer.putInt(12, SLOT_SIZE);
+			buffer.putLong(SEQUENCE_OFFSET, 0);
+		}
+		else if(buffer.getInt(4) != VERSION || buffer.getInt(8) != SLOT_COUNT || buffer.getInt(12) != SLOT_SIZE) {
+			throw new IOException("注册文件版本不兼容: " + file.getPath());
+		}
+	}
+
+	/**
+	 * 映射文件, 文件被删除重建后重新映射
+	 */
+	private boolean map() throws IOException {
+		Object current;
+		this.identityCheckedAt = System.currentTimeMillis();
+		try {
+			current = this.identity();
+		} catch (NoSuchFileException e) {
+			this.buffer = null;
+			this.identity = null;
+			return false;
+		}
+		if(buffer != null && current.equals(identity)) {
+			return true;
+		}
+		this.buffer = null;
+		long size = HEADER_SIZE + (long) SLOT_SIZE * SLOT_COUNT;
+		if(!file.isFile() || file.length() < size) {
+			return false;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if(mapped.getInt(0) != MAGIC) {
+				// provider还没写完header
+				return false;
+			}
+			if(mapped.getInt(4) != VERSION || mapped.getInt(8) != SLOT_COUNT || mapped.getInt(12) != SLOT_SIZE) {
+				throw new IOException("注册文件版本不兼容: " + file.getPath());
+			}
+			this.buffer = mapped;
+			this.identity = current;
+			this.generation++;
+			return true;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * inode, 文件系统不支持时用创建时间
+	 */
+	private Object identity() throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		Object key = attributes.fileKey();
+		return key != null? key: attributes.creationTime();
+	}
+
+	private String readString(int offset, int maxLength) {
+		int length = buffer.getShort(offset);
+		if(length <= 0 || length > maxLength) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + 2 + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	private void writeString(int offset, byte[] bytes) {
+		buffer.putShort(offset, (short) bytes.length);
+		for(int i = 0; i < bytes.length; i++) {
+			buffer.put(offset + 2 + i, bytes[i]);
+		}
+	}
+
+	private boolean sameBytes(int offset, byte[] bytes) {
+		if(buffer.getShort(offset) != bytes.length) {
+			return false;
+		}
+		for(int i = 0; i < bytes.length; i++) {
+			if(buffer.get(offset + 2 + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static class Snapshot {
+
+		private final long sequence;
+
+		private final List<Entry> entries;
+
+		Snapshot(long sequence, List<Entry> entries) {
+			this.sequence = sequence;
+			this.entries = entries;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public List<Entry> getEntries() {
+			return entries;
+		}
+
+	}
+
+	public static class Entry {
+
+		private final String app;
+
+		private final long owner;
+
+		private final String localKey;
+
+		private final int port;
+
+		private final long updateTime;
+
+		Entry(String app, long owner, String localKey, int port, long updateTime) {
+			this.app = app;
+			this.owner = owner;
+			this.localKey = localKey;
+			this.port = port;
+			this.updateTime = updateTime;
+		}
+
+		public String getApp() {
+			return app;
+		}
+
+		public long getOwner() {
+			return owner;
+		}
+
+		/**
+		 * 应用名@pid
+		 */
+		public String getInstance() {
+			return instance(app, owner);
+		}
+
+		public String getLocalKey() {
+			return localKey;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public long getUpdateTime() {
+			return updateTime;
+		}
+
+	}
+
+}
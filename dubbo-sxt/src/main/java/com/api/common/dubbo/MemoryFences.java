@@ -0,0 +1,80 @@
+package com.api.common.dubbo;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 内存映射文件读写用的内存屏障
+ * <p>
+ * MappedByteBuffer的读写是普通访问, volatile字段的读写不能保证它们的顺序, 跨进程的seqlock和ring需要真正的屏障.
+ * JDK 8没有VarHandle, 使用Unsafe.loadFence/storeFence(按release 8编译时看不到sun.misc, 通过MethodHandle调用, JIT后和直接调用一样);
+ * 取不到Unsafe时退化为全局锁(加锁/解锁前后的访问不会越过锁)
+ *
+ * @author sxt
+ */
+final class MemoryFences {
+
+	private static Logger logger = Logger.getLogger(MemoryFences.class);
+
+	private static final Object FALLBACK_MONITOR = new Object();
+
+	// 绑定到Unsafe实例, 类型()void; 取不到时为null
+	private static final MethodHandle LOAD_FENCE = resolveFence("loadFence");
+
+	private static final MethodHandle STORE_FENCE = resolveFence("storeFence");
+
+	private MemoryFences() {
+	}
+
+	/**
+	 * 之前的读不会和之后的读写重排序(acquire)
+	 */
+	static void loadFence() {
+		if(LOAD_FENCE != null) {
+			invoke(LOAD_FENCE);
+			return ;
+		}
+		synchronized (FALLBACK_MONITOR) {
+			// 只用作屏障
+		}
+	}
+
+	/**
+	 * 之前的读写不会和之后的写重排序(release)
+	 */
+	static void storeFence() {
+		if(STORE_FENCE != null) {
+			invoke(STORE_FENCE);
+			return ;
+		}
+		synchronized (FALLBACK_MONITOR) {
+			// 只用作屏障
+		}
+	}
+
+	private static void invoke(MethodHandle fence) {
+		try {
+			fence.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException("内存屏障", e);
+		}
+	}
+
+	private static MethodHandle resolveFence(String name) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			MethodHandle fence = MethodHandles.lookup().findVirtual(unsafeClass, name, MethodType.methodType(void.class));
+			return fence.bindTo(field.get(null));
+		} catch (Exception e) {
+			logger.warn("获取Unsafe." + name + "失败, 内存屏障使用全局锁代替", e);
+			return null;
+		}
+	}
+
+}
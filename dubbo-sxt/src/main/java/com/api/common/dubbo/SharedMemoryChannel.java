@@ -0,0 +1,250 @@
+package com.api.common.dubbo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.extension.ExtensionLoader;
+import com.alibaba.dubbo.common.serialize.ObjectInput;
+import com.alibaba.dubbo.common.serialize.ObjectOutput;
+import com.alibaba.dubbo.common.serialize.Serialization;
+
+/**
+ * 同一台机器上consumer和provider之间的共享内存通道(实验性), 每个provider端口一个文件
+ * <p>
+ * 文件放在通知目录下, 文件名shm-端口.chl, provider启动时创建, 存在且心跳没有过期就表示provider提供了共享内存通道.
+ * 格式:
+ * <pre>
+ * header(128字节): magic(int) | version(int) | capacity(int) | 保留(int) | heartbeat(long) | 保留
+ * 请求ring(consumer写, provider读) | 响应ring(provider写, consumer读)
+ * </pre>
+ * 同一时间只允许一个consumer进程使用(文件锁), 其他consumer进程继续走TCP; 进程内由SharedMemoryClient共用
+ *
+ * @author sxt
+ */
+public class SharedMemoryChannel {
+
+	public static final String FILE_PREFIX = "shm-";
+
+	public static final String FILE_SUFFIX = ".chl";
+
+	// provider心跳超过这个时间没有更新就认为provider已经退出
+	public static final long HEARTBEAT_TIMEOUT = 3000;
+
+	static final int MAGIC = 0x53484d31;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 128;
+
+	private static final int CAPACITY_OFFSET = 8;
+
+	private static final int HEARTBEAT_OFFSET = 16;
+
+	private static final String SERIALIZATION = "hessian2";
+
+	private final File file;
+
+	private final RandomAccessFile raf;
+
+	private final MappedByteBuffer buffer;
+
+	private final SharedMemoryRing requests;
+
+	private final SharedMemoryRing responses;
+
+	// consumer持有
+	private FileLock consumerLock;
+
+	private SharedMemoryChannel(File file, RandomAccessFile raf, MappedByteBuffer buffer, int capacity) {
+		this.file = file;
+		this.raf = raf;
+		this.buffer = buffer;
+		this.requests = new SharedMemoryRing(buffer, HEADER_SIZE, capacity);
+		this.responses = new SharedMemoryRing(buffer, HEADER_SIZE + SharedMemoryRing.size(capacity), capacity);
+	}
+
+	public static File file(String dirPath, int port) {
+		return new File(dirPath, FILE_PREFIX + port + FILE_SUFFIX);
+	}
+
+	/**
+	 * provider创建通道, 已经存在的文件(上一次启动留下的)直接删除重建
+	 *
+	 * @param capacity 每个方向ring的大小, 2的幂
+	 */
+	public static SharedMemoryChannel create(String dirPath, int port, int capacity) throws IOException {
+		File file = file(dirPath, port);
+		if(file.exists() && !file.delete()) {
+			throw new IOException("删除旧的共享内存文件失败: " + file.getPath());
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long size = HEADER_SIZE + 2L * SharedMemoryRing.size(capacity);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			SharedMemoryChannel channel = new SharedMemoryChannel(file, raf, buffer, capacity);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(CAPACITY_OFFSET, capacity);
+			channel.heartbeat();
+			// magic最后写, consumer看到magic才会打开
+			buffer.putInt(0, MAGIC);
+			return channel;
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * consumer打开通道; 文件不存在、provider心跳过期或者已经被其他consumer进程占用时返回null
+	 */
+	public static SharedMemoryChannel open(String dirPath, int port) throws IOException {
+		File file = file(dirPath, port);
+		if(!file.isFile() || file.length() < HEADER_SIZE) {
+			return null;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		SharedMemoryChannel channel = null;
+		try {
+			FileChannel fileChannel = raf.getChannel();
+			MappedByteBuffer header = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if(header.getInt(0) != MAGIC) {
+				return null;
+			}
+			if(header.getInt(4) != VERSION) {
+				throw new IOException("共享内存文件版本不兼容: " + file.getPath());
+			}
+			int capacity = header.getInt(CAPACITY_OFFSET);
+			long size = HEADER_SIZE + 2L * SharedMemoryRing.size(capacity);
+			if(fileChannel.size() < size) {
+				return null;
+			}
+			channel = new SharedMemoryChannel(file, raf, fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size), capacity);
+			if(!channel.isProviderAlive()) {
+				channel = null;
+				return null;
+			}
+			try {
+				channel.consumerLock = fileChannel.tryLock(0, 1, false);
+			} catch (OverlappingFileLockException e) {
+				// 同一个jvm中已经打开了
+			}
+			if(channel.consumerLock == null) {
+				channel = null;
+				return null;
+			}
+			return channel;
+		} finally {
+			if(channel == null) {
+				raf.close();
+			}
+		}
+	}
+
+	public SharedMemoryRing requests() {
+		return requests;
+	}
+
+	public SharedMemoryRing responses() {
+		return responses;
+	}
+
+	/**
+	 * provider定时调用
+	 */
+	public void heartbeat() {
+		buffer.putLong(HEARTBEAT_OFFSET, System.currentTimeMillis());
+	}
+
+	public boolean isProviderAlive() {
+		return System.currentTimeMillis() - buffer.getLong(HEARTBEAT_OFFSET) < HEARTBEAT_TIMEOUT;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * 关闭通道, provider关闭时同时删除文件
+	 */
+	public void close(boolean delete) {
+		try {
+			if(consumerLock != null) {
+				consumerLock.release();
+			}
+			raf.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		if(delete) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * provider端按这个key查找服务: group/interface:version
+	 */
+	public static String serviceKey(String interfaceName, String group, String version) {
+		StringBuilder builder = new StringBuilder();
+		if(StringUtils.isNotBlank(group)) {
+			builder.append(group).append("/");
+		}
+		builder.append(interfaceName);
+		if(StringUtils.isNotBlank(version) && !"0.0.0".equals(version)) {
+			builder.append(":").append(version);
+		}
+		return builder.toString();
+	}
+
+	static ObjectOutput serialize(URL url, ByteArrayOutputStream out) throws IOException {
+		return ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(SERIALIZATION).serialize(url, out);
+	}
+
+	static ObjectInput deserialize(URL url, byte[] payload, int offset) throws IOException {
+		return ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(SERIALIZATION) //
+				.deserialize(url, new ByteArrayInputStream(payload, offset, payload.length - offset));
+	}
+
+	/**
+	 * 等待策略: 先空转, 再让出CPU, 最后park, 有数据后reset
+	 */
+	public static class Idler {
+
+		// 单核机器上空转只会抢对端的CPU
+		private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1? 200: 0;
+
+		private static final int YIELDS = 100;
+
+		private static final long MAX_PARK_NANOS = 100 * 1000;
+
+		private int idle = 0;
+
+		public void idle() {
+			idle++;
+			if(idle <= SPINS) {
+				return ;
+			}
+			if(idle <= SPINS + YIELDS) {
+				Thread.yield();
+				return ;
+			}
+			LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(idle - SPINS - YIELDS, 7)));
+		}
+
+		public void reset() {
+			this.idle = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,243 @@
+package com.api.common.dubbo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.rpc.RpcException;
+
+/**
+ * consumer端的共享内存通道(实验性), 每个provider端口一个, 同一个jvm中引用这个端口的SharedMemoryInvoker共用
+ * <p>
+ * 通道的文件锁每个jvm只能拿一次, 所以不能每个Invoker各自打开. 请求id在通道内唯一,
+ * 一个读线程从响应ring取结果按请求id交给等待的调用线程; 没有等待中的请求时读线程park, 发出请求后unpark, 空闲时不轮询.
+ * 最后一个Invoker销毁时关闭通道
+ *
+ * @author sxt
+ */
+public class SharedMemoryClient {
+
+	private static Logger logger = Logger.getLogger(SharedMemoryClient.class);
+
+	// provider重启后重新打开通道的最小间隔
+	private static final long REATTACH_INTERVAL = 1000;
+
+	// port : client
+	private static final ConcurrentHashMap<Integer, SharedMemoryClient> CLIENTS = new ConcurrentHashMap<Integer, SharedMemoryClient>();
+
+	private final String dirPath;
+
+	private final int port;
+
+	private final AtomicLong ids = new AtomicLong(System.nanoTime());
+
+	// 请求id : 等待中的调用, 值是响应frame
+	private final ConcurrentHashMap<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<Long, CompletableFuture<byte[]>>();
+
+	private final Thread reader;
+
+	private volatile SharedMemoryChannel channel;
+
+	private volatile boolean running = true;
+
+	// 读线程准备park, 调用线程登记请求后看到true时unpark
+	private volatile boolean sleeping;
+
+	// 引用这个通道的Invoker个数, 修改时持有SharedMemoryClient.class的锁
+	private int references = 1;
+
+	private long lastReattach;
+
+	private SharedMemoryClient(String dirPath, int port, SharedMemoryChannel channel) {
+		this.dirPath = dirPath;
+		this.port = port;
+		this.channel = channel;
+		this.reader = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				SharedMemoryClient.this.read();
+			}
+		}, "local-shm-client-" + port);
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	/**
+	 * 引用端口对应的通道, 已经打开直接共用; provider没有提供共享内存通道或者通道已经被其他consumer进程占用时返回null
+	 */
+	public static synchronized SharedMemoryClient acquire(String dirPath, int port) throws IOException {
+		SharedMemoryClient client = CLIENTS.get(port);
+		if(client != null) {
+			client.references++;
+			return client;
+		}
+		SharedMemoryChannel channel = SharedMemoryChannel.open(dirPath, port);
+		if(channel == null) {
+			return null;
+		}
+		client = new SharedMemoryClient(dirPath, port, channel);
+		CLIENTS.put(port, client);
+		logger.info("打开共享内存通道: " + channel.getFile().getPath());
+		return client;
+	}
+
+	/**
+	 * Invoker销毁时调用, 最后一个引用释放后关闭通道
+	 */
+	public void release() {
+		synchronized (SharedMemoryClient.class) {
+			if(--references > 0) {
+				return ;
+			}
+			this.close(new RpcException(RpcException.NETWORK_EXCEPTION, "共享内存通道已关闭: " + port));
+		}
+	}
+
+	public boolean isAvailable() {
+		return running && channel.isProviderAlive();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * 通道内唯一的请求id, 写在请求frame的开头
+	 */
+	public long nextId() {
+		return ids.incrementAndGet();
+	}
+
+	/**
+	 * 发出请求, 返回的Future在收到同一个id的响应时完成; 调用方超时后要调用cancel
+	 */
+	public CompletableFuture<byte[]> send(long id, byte[] request, long deadline) {
+		SharedMemoryChannel channel = this.currentChannel();
+		SharedMemoryRing ring = channel.requests();
+		if(request.length > ring.maxPayload()) {
+			throw new RpcException(RpcException.NETWORK_EXCEPTION, "请求过大: " + request.length);
+		}
+		CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+		pending.put(id, future);
+		try {
+			SharedMemoryChannel.Idler idler = new SharedMemoryChannel.Idler();
+			synchronized (ring) {
+				while(!ring.offer(request, request.length)) {
+					if(!running || System.currentTimeMillis() > deadline) {
+						throw new RpcException(RpcException.TIMEOUT_EXCEPTION, "共享内存请求ring已满: " + port);
+					}
+					idler.idle();
+				}
+			}
+		} catch (RuntimeException e) {
+			pending.remove(id);
+			throw e;
+		}
+		if(sleeping) {
+			LockSupport.unpark(reader);
+		}
+		return future;
+	}
+
+	/**
+	 * 不再等待这个请求的响应, 之后到达的响应直接丢弃
+	 */
+	public void cancel(long id) {
+		pending.remove(id);
+	}
+
+	/**
+	 * provider重启后文件被重建, 心跳过期时重新打开
+	 */
+	private SharedMemoryChannel currentChannel() {
+		SharedMemoryChannel current = this.channel;
+		if(current.isProviderAlive()) {
+			return current;
+		}
+		synchronized (this) {
+			current = this.channel;
+			long now = System.currentTimeMillis();
+			if(running && !current.isProviderAlive() && now - lastReattach >= REATTACH_INTERVAL) {
+				lastReattach = now;
+				SharedMemoryChannel reopened = null;
+				try {
+					reopened = SharedMemoryChannel.open(dirPath, port);
+				} catch (IOException e) {
+					logger.warn("重新打开共享内存通道: " + port, e);
+				}
+				if(reopened != null) {
+					this.channel = reopened;
+					current.close(false);
+					logger.info("重新打开共享内存通道: " + reopened.getFile().getPath());
+					return reopened;
+				}
+			}
+		}
+		throw new RpcException(RpcException.NETWORK_EXCEPTION, "共享内存通道的provider已经退出: " + port);
+	}
+
+	/**
+	 * 关闭通道后才能重新acquire, 否则同一个jvm中文件锁冲突
+	 */
+	private void close(RpcException cause) {
+		synchronized (SharedMemoryClient.class) {
+			if(!running) {
+				return ;
+			}
+			this.running = false;
+			CLIENTS.remove(port, this);
+			synchronized (this) {
+				this.channel.close(false);
+			}
+		}
+		LockSupport.unpark(reader);
+		for(CompletableFuture<byte[]> future : pending.values()) {
+			future.completeExceptionally(cause);
+		}
+		pending.clear();
+		logger.info("关闭共享内存通道: " + port);
+	}
+
+	private void read() {
+		SharedMemoryChannel.Idler idler = new SharedMemoryChannel.Idler();
+		while(running) {
+			byte[] response;
+			try {
+				response = channel.responses().poll();
+			} catch (Exception e) {
+				if(running) {
+					logger.error("读取共享内存响应", e);
+					this.close(new RpcException(RpcException.NETWORK_EXCEPTION, "读取共享内存响应失败: " + port, e));
+				}
+				return ;
+			}
+			if(response != null) {
+				idler.reset();
+				CompletableFuture<byte[]> future = pending.remove(ByteBuffer.wrap(response).getLong());
+				// 为null时已经超时
+				if(future != null) {
+					future.complete(response);
+				}
+				continue ;
+			}
+			if(pending.isEmpty()) {
+				// 先声明要park再检查一次, 调用线程登记请求后能看到sleeping, 不会漏掉唤醒
+				sleeping = true;
+				if(pending.isEmpty() && running) {
+					LockSupport.park(this);
+				}
+				sleeping = false;
+				idler.reset();
+				continue ;
+			}
+			idler.idle();
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.api.common.dubbo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.alibaba.dubbo.common.Constants;
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.serialize.ObjectInput;
+import com.alibaba.dubbo.common.serialize.ObjectOutput;
+import com.alibaba.dubbo.common.utils.ReflectUtils;
+import com.alibaba.dubbo.rpc.Invocation;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcContext;
+import com.alibaba.dubbo.rpc.RpcException;
+import com.alibaba.dubbo.rpc.RpcResult;
+import com.alibaba.dubbo.rpc.protocol.AbstractInvoker;
+import com.alibaba.dubbo.rpc.support.RpcUtils;
+
+/**
+ * consumer端的共享内存Invoker(实验性)
+ * <p>
+ * 调用线程序列化请求, 通过端口对应的SharedMemoryClient写入请求ring, 由它的读线程按请求id交回结果,
+ * 同一个jvm中引用同一个端口的Invoker共用一个通道和读线程.
+ * 超时/通道不可用抛出非业务RpcException, 由LocalCluster回退远程.
+ * 异步调用在通道上同步完成, RpcContext中放已经完成的Future, 业务异常时Future异常完成
+ *
+ * @author sxt
+ */
+public class SharedMemoryInvoker<T> extends AbstractInvoker<T> {
+
+	private final SharedMemoryClient client;
+
+	private final String serviceKey;
+
+	private volatile boolean running = true;
+
+	private SharedMemoryInvoker(Class<T> type, URL url, SharedMemoryClient client) {
+		super(type, url);
+		this.client = client;
+		this.serviceKey = SharedMemoryChannel.serviceKey(type.getName(), url.getParameter(Constants.GROUP_KEY), url.getParameter(Constants.VERSION_KEY));
+	}
+
+	/**
+	 * provider没有提供共享内存通道或者通道已经被其他consumer进程占用时返回null
+	 */
+	public static <T> SharedMemoryInvoker<T> open(Class<T> type, URL url, String dirPath, int port) throws IOException {
+		SharedMemoryClient client = SharedMemoryClient.acquire(dirPath, port);
+		if(client == null) {
+			return null;
+		}
+		return new SharedMemoryInvoker<T>(type, url, client);
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return running && client.isAvailable();
+	}
+
+	@Override
+	public void destroy() {
+		if(!running) {
+			return ;
+		}
+		this.running = false;
+		super.destroy();
+		this.client.release();
+	}
+
+	@Override
+	protected Result doInvoke(Invocation invocation) throws Throwable {
+		if(!running) {
+			throw new RpcException(RpcException.NETWORK_EXCEPTION, "共享内存通道已关闭: " + client.getPort());
+		}
+		String methodName = RpcUtils.getMethodName(invocation);
+		int timeout = super.getUrl().getMethodParameter(methodName, Constants.TIMEOUT_KEY, Constants.DEFAULT_TIMEOUT);
+		long id = client.nextId();
+		byte[] request;
+		try {
+			request = this.encode(id, methodName, invocation);
+		} catch (IOException e) {
+			// AbstractInvoker会把非RpcException当成业务异常
+			throw new RpcException(RpcException.SERIALIZATION_EXCEPTION, "共享内存请求序列化失败: " + e.getMessage(), e);
+		}
+		try {
+			CompletableFuture<byte[]> future = client.send(id, request, System.currentTimeMillis() + timeout);
+			Result result = this.decode(future.get(timeout, TimeUnit.MILLISECONDS));
+			if(RpcUtils.isAsync(super.getUrl(), invocation)) {
+				CompletableFuture<Object> done = new CompletableFuture<Object>();
+				if(result.hasException()) {
+					done.completeExceptionally(result.getException());
+				}
+				else {
+					done.complete(result.getValue());
+				}
+				RpcContext.getContext().setFuture(done);
+				return new RpcResult();
+			}
+			return result;
+		} catch (TimeoutException e) {
+			throw new RpcException(RpcException.TIMEOUT_EXCEPTION, "共享内存调用超时: " + serviceKey + "." + methodName + ", " + timeout + "ms");
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		} finally {
+			client.cancel(id);
+		}
+	}
+
+	private byte[] encode(long id, String methodName, Invocation invocation) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		new DataOutputStream(bytes).writeLong(id);
+		ObjectOutput output = SharedMemoryChannel.serialize(super.getUrl(), bytes);
+		output.writeUTF(serviceKey);
+		output.writeUTF(methodName);
+		output.writeUTF(ReflectUtils.getDesc(invocation.getParameterTypes()));
+		Object[] args = invocation.getArguments();
+		if(args != null) {
+			for(Object arg : args) {
+				output.writeObject(arg);
+			}
+		}
+		output.writeObject(invocation.getAttachments());
+		output.flushBuffer();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * 响应frame: id(long) | status(byte) | 返回值/异常/错误信息
+	 */
+	private Result decode(byte[] response) {
+		byte status = response[8];
+		try {
+			ObjectInput input = SharedMemoryChannel.deserialize(super.getUrl(), response, 9);
+			if(status == SharedMemoryServer.STATUS_OK) {
+				return new RpcResult(input.readObject());
+			}
+			if(status == SharedMemoryServer.STATUS_EXCEPTION) {
+				return new RpcResult(input.readObject(Throwable.class));
+			}
+			throw new RpcException(RpcException.NETWORK_EXCEPTION, "共享内存调用失败: " + input.readObject());
+		} catch (RpcException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RpcException(RpcException.SERIALIZATION_EXCEPTION, "共享内存响应反序列化失败", e);
+		}
+	}
+
+}
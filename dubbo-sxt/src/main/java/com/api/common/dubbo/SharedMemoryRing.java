@@ -0,0 +1,148 @@
+package com.api.common.dubbo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 内存映射文件中的单生产者/单消费者环形缓冲区, 一个方向一个
+ * <p>
+ * 格式:
+ * <pre>
+ * head(long, 读位置) | 填充到64字节 | tail(long, 写位置) | 填充到128字节 | data(capacity字节)
+ * frame: length(int) | payload(length字节) | 对齐到4字节
+ * </pre>
+ * 写完payload再更新tail, 读完payload再更新head, 之间用MemoryFences隔开; 每一端只能有一个线程, 多个线程写时由调用方加锁
+ *
+ * @author sxt
+ */
+public class SharedMemoryRing {
+
+	static final int META_SIZE = 128;
+
+	private static final int HEAD_OFFSET = 0;
+
+	private static final int TAIL_OFFSET = 64;
+
+	private final ByteBuffer buffer;
+
+	// 本ring在文件中的起始位置
+	private final int base;
+
+	private final int capacity;
+
+	private final int mask;
+
+	// 读写payload用的视图, 读写两端各一个, 不共享position
+	private final ByteBuffer readView;
+
+	private final ByteBuffer writeView;
+
+	/**
+	 * @param capacity 2的幂
+	 */
+	SharedMemoryRing(ByteBuffer buffer, int base, int capacity) {
+		if(Integer.bitCount(capacity) != 1 || capacity < 1024) {
+			throw new IllegalArgumentException("capacity必须是2的幂且不小于1024: " + capacity);
+		}
+		this.buffer = buffer;
+		this.base = base;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.readView = buffer.duplicate();
+		this.writeView = buffer.duplicate();
+	}
+
+	static int size(int capacity) {
+		return META_SIZE + capacity;
+	}
+
+	/**
+	 * 单个frame的最大payload
+	 */
+	public int maxPayload() {
+		return capacity / 2 - 4;
+	}
+
+	/**
+	 * 写入一个frame, 空间不足返回false
+	 */
+	public boolean offer(byte[] payload, int length) {
+		if(length > this.maxPayload()) {
+			throw new IllegalArgumentException("frame过大: " + length + ", 最大: " + this.maxPayload());
+		}
+		int frame = align(4 + length);
+		long tail = buffer.getLong(base + TAIL_OFFSET);
+		long head = buffer.getLong(base + HEAD_OFFSET);
+		// 读端释放的空间确认后才能写
+		MemoryFences.loadFence();
+		if(tail + frame - head > capacity) {
+			return false;
+		}
+		int position = (int) (tail & mask);
+		buffer.putInt(this.data(position), length);
+		this.copyIn(payload, length, (position + 4) & mask);
+		// payload写完才能发布tail
+		MemoryFences.storeFence();
+		buffer.putLong(base + TAIL_OFFSET, tail + frame);
+		return true;
+	}
+
+	/**
+	 * 读取一个frame, 没有数据返回null
+	 */
+	public byte[] poll() {
+		long head = buffer.getLong(base + HEAD_OFFSET);
+		long tail = buffer.getLong(base + TAIL_OFFSET);
+		// payload的读取不能提前到tail之前
+		MemoryFences.loadFence();
+		if(head == tail) {
+			return null;
+		}
+		int position = (int) (head & mask);
+		int length = buffer.getInt(this.data(position));
+		if(length < 0 || length > this.maxPayload()) {
+			throw new IllegalStateException("frame长度错误: " + length);
+		}
+		byte[] payload = new byte[length];
+		this.copyOut(payload, (position + 4) & mask);
+		// payload读完才能释放空间
+		MemoryFences.storeFence();
+		buffer.putLong(base + HEAD_OFFSET, head + align(4 + length));
+		return payload;
+	}
+
+	public boolean isEmpty() {
+		return buffer.getLong(base + HEAD_OFFSET) == buffer.getLong(base + TAIL_OFFSET);
+	}
+
+	private int data(int position) {
+		return base + META_SIZE + position;
+	}
+
+	/**
+	 * payload可能跨过data末尾, 分两段拷贝
+	 */
+	private void copyIn(byte[] payload, int length, int position) {
+		int first = Math.min(length, capacity - position);
+		writeView.position(this.data(position));
+		writeView.put(payload, 0, first);
+		if(first < length) {
+			writeView.position(this.data(0));
+			writeView.put(payload, first, length - first);
+		}
+	}
+
+	private void copyOut(byte[] payload, int position) {
+		int first = Math.min(payload.length, capacity - position);
+		readView.position(this.data(position));
+		readView.get(payload, 0, first);
+		if(first < payload.length) {
+			readView.position(this.data(0));
+			readView.get(payload, first, payload.length - first);
+		}
+	}
+
+	private static int align(int size) {
+		return (size + 3) & ~3;
+	}
+
+}
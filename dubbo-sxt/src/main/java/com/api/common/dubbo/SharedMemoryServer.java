@@ -0,0 +1,246 @@
+package com.api.common.dubbo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.serialize.ObjectInput;
+import com.alibaba.dubbo.common.serialize.ObjectOutput;
+import com.alibaba.dubbo.common.utils.ReflectUtils;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcContext;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+
+/**
+ * provider端的共享内存通道(实验性), 每个端口一个
+ * <p>
+ * 读线程从请求ring取frame交给业务线程池, 业务线程调用服务后串行写入响应ring.
+ * 请求直接调用导出时的Invoker, 不经过dubbo协议层(线程池/编解码)
+ *
+ * @author sxt
+ */
+public class SharedMemoryServer {
+
+	private static Logger logger = Logger.getLogger(SharedMemoryServer.class);
+
+	static final byte STATUS_OK = 0;
+
+	static final byte STATUS_EXCEPTION = 1;
+
+	static final byte STATUS_ERROR = 2;
+
+	private static final long HEARTBEAT_INTERVAL = 500;
+
+	// 响应ring写满时最多等待多久(毫秒), consumer不读了就丢弃
+	private static final long RESPONSE_WAIT = 3000;
+
+	// port : server
+	private static final ConcurrentHashMap<Integer, SharedMemoryServer> SERVERS = new ConcurrentHashMap<Integer, SharedMemoryServer>();
+
+	private final int port;
+
+	private final SharedMemoryChannel channel;
+
+	private final URL url;
+
+	// group/interface:version : Invoker
+	private final Map<String, Invoker<?>> invokers = new ConcurrentHashMap<String, Invoker<?>>();
+
+	private final ExecutorService executor;
+
+	private volatile boolean running = true;
+
+	// 使用这个通道的publisher个数, 在类锁里修改
+	private int references = 0;
+
+	private SharedMemoryServer(int port, SharedMemoryChannel channel, int threads) {
+		this.port = port;
+		this.channel = channel;
+		this.url = URL.valueOf("shm://127.0.0.1:" + port);
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			private final AtomicInteger index = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "local-shm-handler-" + SharedMemoryServer.this.port + "-" + index.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		Thread reader = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				SharedMemoryServer.this.read();
+			}
+		}, "local-shm-server-" + port);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * 启动端口对应的通道, 已经启动直接返回; 每次调用都要对应一次release()
+	 */
+	public static synchronized SharedMemoryServer start(String dirPath, int port, int capacity, int threads) throws IOException {
+		SharedMemoryServer server = SERVERS.get(port);
+		if(server == null) {
+			server = new SharedMemoryServer(port, SharedMemoryChannel.create(dirPath, port, capacity), threads);
+			SERVERS.put(port, server);
+			logger.info("共享内存通道启动: " + server.channel.getFile().getPath());
+		}
+		server.references++;
+		return server;
+	}
+
+	/**
+	 * 释放start()得到的通道, 最后一个使用者释放时关闭通道, 删除文件
+	 */
+	public static synchronized void release(SharedMemoryServer server) {
+		if(--server.references > 0) {
+			return ;
+		}
+		if(SERVERS.remove(server.port, server)) {
+			server.stop();
+		}
+	}
+
+	/**
+	 * @param serviceKey SharedMemoryChannel.serviceKey()
+	 */
+	public void export(String serviceKey, Invoker<?> invoker) {
+		invokers.put(serviceKey, invoker);
+	}
+
+	public void unexport(String serviceKey) {
+		invokers.remove(serviceKey);
+	}
+
+	private void stop() {
+		this.running = false;
+		this.executor.shutdownNow();
+		this.channel.close(true);
+		logger.info("共享内存通道关闭: " + channel.getFile().getPath());
+	}
+
+	private void read() {
+		SharedMemoryChannel.Idler idler = new SharedMemoryChannel.Idler();
+		long lastHeartbeat = 0;
+		while(running) {
+			long now = System.currentTimeMillis();
+			if(now - lastHeartbeat >= HEARTBEAT_INTERVAL) {
+				channel.heartbeat();
+				lastHeartbeat = now;
+			}
+			final byte[] request;
+			try {
+				request = channel.requests().poll();
+			} catch (Exception e) {
+				if(running) {
+					logger.error("读取共享内存请求, 通道关闭", e);
+					SERVERS.remove(port, this);
+					this.stop();
+				}
+				return ;
+			}
+			if(request == null) {
+				idler.idle();
+				continue ;
+			}
+			idler.reset();
+			try {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						SharedMemoryServer.this.handle(request);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// 已经关闭
+				return ;
+			}
+		}
+	}
+
+	private void handle(byte[] request) {
+		long id = ByteBuffer.wrap(request).getLong();
+		try {
+			ObjectInput input = SharedMemoryChannel.deserialize(url, request, 8);
+			String serviceKey = input.readUTF();
+			String methodName = input.readUTF();
+			Class<?>[] parameterTypes = ReflectUtils.desc2classArray(input.readUTF());
+			Object[] args = new Object[parameterTypes.length];
+			for(int i = 0; i < args.length; i++) {
+				args[i] = input.readObject(parameterTypes[i]);
+			}
+			@SuppressWarnings("unchecked")
+			Map<String, String> attachments = input.readObject(Map.class);
+			Invoker<?> invoker = invokers.get(serviceKey);
+			if(invoker == null) {
+				this.respond(id, STATUS_ERROR, "共享内存通道没有导出服务: " + serviceKey);
+				return ;
+			}
+			RpcContext.getContext().setAttachments(attachments);
+			Result result;
+			try {
+				result = invoker.invoke(new RpcInvocation(methodName, parameterTypes, args, attachments));
+			} finally {
+				RpcContext.removeContext();
+			}
+			if(result.hasException()) {
+				this.respond(id, STATUS_EXCEPTION, result.getException());
+			}
+			else {
+				this.respond(id, STATUS_OK, result.getValue());
+			}
+		} catch (Throwable e) {
+			logger.warn("处理共享内存请求", e);
+			try {
+				this.respond(id, STATUS_ERROR, String.valueOf(e));
+			} catch (IOException ex) {
+				logger.warn("写共享内存响应", ex);
+			}
+		}
+	}
+
+	private void respond(long id, byte status, Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeLong(id);
+		header.writeByte(status);
+		ObjectOutput output = SharedMemoryChannel.serialize(url, bytes);
+		output.writeObject(value);
+		output.flushBuffer();
+		byte[] response = bytes.toByteArray();
+		if(response.length > channel.responses().maxPayload()) {
+			this.respond(id, STATUS_ERROR, "响应过大: " + response.length);
+			return ;
+		}
+		SharedMemoryRing ring = channel.responses();
+		long deadline = System.currentTimeMillis() + RESPONSE_WAIT;
+		SharedMemoryChannel.Idler idler = new SharedMemoryChannel.Idler();
+		synchronized (ring) {
+			while(!ring.offer(response, response.length)) {
+				if(!running || System.currentTimeMillis() > deadline) {
+					logger.warn("共享内存响应ring已满, 丢弃响应: " + id);
+					return ;
+				}
+				idler.idle();
+			}
+		}
+	}
+
+}
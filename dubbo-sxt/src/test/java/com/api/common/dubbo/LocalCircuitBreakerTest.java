@@ -0,0 +1,193 @@
+package com.api.common.dubbo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.dubbo.common.URL;
+
+/**
+ * @author sxt
+ */
+public class LocalCircuitBreakerTest {
+
+	// 统计窗口里的任意一个时间点, 桶的滚动测试用
+	private static final long BASE = 1000000000000L;
+
+	private ServerSocket server;
+
+	private LocalCircuitBreaker breaker;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ServerSocket(0);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if(breaker != null) {
+			breaker.dispose();
+		}
+		server.close();
+	}
+
+	@Test
+	public void tripsWhenFailureRateReached() {
+		breaker = this.breaker(server.getLocalPort(), "");
+		for(int i = 0; i < 4; i++) {
+			breaker.onError(1);
+		}
+		// 不到最少调用次数
+		assertEquals(LocalCircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.onError(1);
+		assertEquals(LocalCircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void staysClosedBelowFailureRate() {
+		breaker = this.breaker(server.getLocalPort(), "");
+		for(int i = 0; i < 10; i++) {
+			breaker.onSuccess(1);
+		}
+		for(int i = 0; i < 9; i++) {
+			breaker.onError(1);
+		}
+		assertEquals(LocalCircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void tripsOnSlowCalls() {
+		breaker = this.breaker(server.getLocalPort(), "local.breaker.slowRate=50&local.breaker.slowCall=100");
+		for(int i = 0; i < 4; i++) {
+			breaker.onSuccess(200);
+		}
+		assertEquals(LocalCircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.onSuccess(200);
+		assertEquals(LocalCircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void countsCallsAcrossBucketsInWindow() {
+		breaker = this.breaker(server.getLocalPort(), "");
+		for(int i = 0; i < 4; i++) {
+			breaker.record(true, false, BASE);
+		}
+		breaker.record(true, false, BASE + 9000);
+		assertEquals(LocalCircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void dropsBucketsOutsideWindow() {
+		breaker = this.breaker(server.getLocalPort(), "");
+		for(int i = 0; i < 4; i++) {
+			breaker.record(true, false, BASE);
+		}
+		// 10秒后复用同一个桶, 之前的计数清零
+		breaker.record(true, false, BASE + 10000);
+		assertEquals(LocalCircuitBreaker.State.CLOSED, breaker.getState());
+		for(int i = 0; i < 3; i++) {
+			breaker.record(true, false, BASE + 10000);
+		}
+		assertEquals(LocalCircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.record(true, false, BASE + 10000);
+		assertEquals(LocalCircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void probesAndRecovers() throws Exception {
+		breaker = this.breaker(server.getLocalPort(), "");
+		this.trip();
+		this.await(LocalCircuitBreaker.State.HALF_OPEN);
+		for(int i = 0; i < 3; i++) {
+			assertTrue(breaker.allowRequest());
+		}
+		// 放行次数用完
+		assertFalse(breaker.allowRequest());
+		breaker.onSuccess(1);
+		breaker.onSuccess(1);
+		assertEquals(LocalCircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.onSuccess(1);
+		assertEquals(LocalCircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		// 回到CLOSED后重新统计, 之前的失败不算
+		for(int i = 0; i < 4; i++) {
+			breaker.onError(1);
+		}
+		assertEquals(LocalCircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void reopensOnHalfOpenFailure() throws Exception {
+		breaker = this.breaker(server.getLocalPort(), "");
+		this.trip();
+		this.await(LocalCircuitBreaker.State.HALF_OPEN);
+		assertTrue(breaker.allowRequest());
+		breaker.onSuccess(1);
+		breaker.onError(1);
+		assertEquals(LocalCircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		// 端口还能连接, 再次探测后进入HALF_OPEN
+		this.await(LocalCircuitBreaker.State.HALF_OPEN);
+	}
+
+	@Test
+	public void staysOpenWhilePortRefused() throws Exception {
+		int port = server.getLocalPort();
+		server.close();
+		breaker = this.breaker(port, "");
+		this.trip();
+		Thread.sleep(300);
+		assertEquals(LocalCircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void startsNewHalfOpenRoundWithoutVerdict() throws Exception {
+		breaker = this.breaker(server.getLocalPort(), "local.breaker.halfOpenCalls=2");
+		this.trip();
+		this.await(LocalCircuitBreaker.State.HALF_OPEN);
+		assertTrue(breaker.allowRequest());
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+		// 放行的请求没有上报结果, 过了openTime重新放行一轮
+		long deadline = System.currentTimeMillis() + 2000;
+		boolean allowed = false;
+		while(!allowed && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			allowed = breaker.allowRequest();
+		}
+		assertTrue(allowed);
+		assertEquals(LocalCircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.onSuccess(1);
+		breaker.onSuccess(1);
+		assertEquals(LocalCircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	private LocalCircuitBreaker breaker(int port, String parameters) {
+		URL url = URL.valueOf("dubbo://127.0.0.1:" + port + "/com.api.TestService?local.breaker.openTime=50&" + parameters);
+		return new LocalCircuitBreaker("127.0.0.1:" + port, "127.0.0.1", port, url);
+	}
+
+	private void trip() {
+		for(int i = 0; i < 5; i++) {
+			breaker.onError(1);
+		}
+		assertEquals(LocalCircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	private void await(LocalCircuitBreaker.State state) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while(breaker.getState() != state && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(state, breaker.getState());
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.api.common.dubbo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.alibaba.dubbo.common.URL;
+
+/**
+ * @author sxt
+ */
+public class LocalHedgePolicyTest {
+
+	@Test
+	public void usesFixedDelay() {
+		assertEquals(20, this.policy("20").delay(null));
+		assertEquals(0, this.policy(" 0 ").delay(null));
+	}
+
+	@Test
+	public void fallsBackToP95OnInvalidDelay() {
+		// p95样本不足时使用默认延迟
+		long p95 = this.policy("p95").delay(null);
+		assertEquals(p95, this.policy("20ms").delay(null));
+		assertEquals(p95, this.policy("-5").delay(null));
+		assertEquals(p95, this.policy("").delay(null));
+		assertTrue(this.policy("20ms").isHedged("get"));
+	}
+
+	private LocalHedgePolicy policy(String delay) {
+		return new LocalHedgePolicy(URL.valueOf("dubbo://127.0.0.1:20880/com.api.TestService?local.hedge=true&local.hedge.methods=get") //
+				.addParameter(LocalHedgePolicy.HEDGE_DELAY_KEY, delay));
+	}
+
+}
@@ -0,0 +1,158 @@
+package com.api.common.dubbo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcContext;
+import com.alibaba.dubbo.rpc.RpcException;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+import com.alibaba.dubbo.rpc.RpcResult;
+
+/**
+ * 测试线程是leader, 等待者在其他线程上join
+ *
+ * @author sxt
+ */
+public class LocalRequestCoalescerTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		RpcContext.removeContext();
+	}
+
+	@Test
+	public void disabledWithoutConfig() {
+		assertNull(LocalRequestCoalescer.create(URL.valueOf("dubbo://127.0.0.1:20880/com.api.TestService"), this.metrics()));
+		assertNull(this.coalescer("get.local.coalesce=true").join(this.invocation("other", "a")));
+	}
+
+	@Test
+	public void waiterGetsLeaderResult() throws Exception {
+		LocalRequestCoalescer coalescer = this.coalescer("get.local.coalesce=true");
+		LocalRequestCoalescer.Flight leader = coalescer.join(this.invocation("get", "a"));
+		assertTrue(leader.isLeader());
+		LocalRequestCoalescer.Flight waiter = this.joinElsewhere(coalescer, this.invocation("get", "a"));
+		assertSame(leader, waiter);
+		Future<Result> awaited = this.awaitElsewhere(waiter);
+		RpcResult result = new RpcResult("a");
+		leader.complete(result, null);
+		assertSame(result, awaited.get());
+		// 完成后相同的请求重新发出调用
+		assertNotSame(leader, this.joinElsewhere(coalescer, this.invocation("get", "a")));
+	}
+
+	@Test
+	public void waiterRethrowsLeaderFailure() throws Exception {
+		LocalRequestCoalescer coalescer = this.coalescer("get.local.coalesce=true");
+		LocalRequestCoalescer.Flight leader = coalescer.join(this.invocation("get", "a"));
+		Future<Result> awaited = this.awaitElsewhere(this.joinElsewhere(coalescer, this.invocation("get", "a")));
+		RpcException failure = new RpcException(RpcException.NETWORK_EXCEPTION, "连接断开");
+		leader.complete(null, failure);
+		try {
+			awaited.get();
+			fail();
+		} catch (ExecutionException e) {
+			RpcException cause = (RpcException) e.getCause();
+			assertNotSame(failure, cause);
+			assertEquals(RpcException.NETWORK_EXCEPTION, cause.getCode());
+			assertSame(failure, cause.getCause());
+		}
+	}
+
+	@Test
+	public void waiterTimesOutAfterTimeoutTimesRetriesPlusTwo() throws Exception {
+		// 10 * (1 + 2) = 30ms
+		LocalRequestCoalescer coalescer = this.coalescer("get.local.coalesce=true&get.timeout=10&get.retries=1");
+		LocalRequestCoalescer.Flight leader = coalescer.join(this.invocation("get", "a"));
+		LocalRequestCoalescer.Flight waiter = this.joinElsewhere(coalescer, this.invocation("get", "a"));
+		long start = System.currentTimeMillis();
+		try {
+			waiter.await();
+			fail();
+		} catch (RpcException e) {
+			assertTrue(e.isTimeout());
+			assertTrue(System.currentTimeMillis() - start >= 30);
+		}
+		leader.complete(new RpcResult("a"), null);
+	}
+
+	@Test
+	public void limitsWaiters() throws Exception {
+		LocalRequestCoalescer coalescer = this.coalescer("get.local.coalesce=true&get.local.coalesce.waiters=1");
+		LocalRequestCoalescer.Flight leader = coalescer.join(this.invocation("get", "a"));
+		assertNotNull(this.joinElsewhere(coalescer, this.invocation("get", "a")));
+		assertNull(this.joinElsewhere(coalescer, this.invocation("get", "a")));
+		leader.complete(new RpcResult("a"), null);
+	}
+
+	@Test
+	public void separatesOverloadsAndAttachments() throws Exception {
+		LocalRequestCoalescer coalescer = this.coalescer("get.local.coalesce=true");
+		LocalRequestCoalescer.Flight leader = coalescer.join(new RpcInvocation("get", new Class<?>[] {String.class}, new Object[] {null}));
+		LocalRequestCoalescer.Flight overload = this.joinElsewhere(coalescer, new RpcInvocation("get", new Class<?>[] {Long.class}, new Object[] {null}));
+		assertNotSame(leader, overload);
+		RpcContext.getContext().setAttachment("traceId", "1");
+		LocalRequestCoalescer.Flight traced = coalescer.join(this.invocation("get", "b"));
+		assertTrue(traced.isLeader());
+		assertNotSame(traced, this.joinElsewhere(coalescer, this.invocation("get", "b")));
+		RpcInvocation sameTrace = this.invocation("get", "b");
+		sameTrace.setAttachment("traceId", "1");
+		assertSame(traced, this.joinElsewhere(coalescer, sameTrace));
+	}
+
+	private LocalRequestCoalescer.Flight joinElsewhere(final LocalRequestCoalescer coalescer, final RpcInvocation invocation) throws Exception {
+		return executor.submit(new Callable<LocalRequestCoalescer.Flight>() {
+
+			@Override
+			public LocalRequestCoalescer.Flight call() throws Exception {
+				return coalescer.join(invocation);
+			}
+		}).get();
+	}
+
+	private Future<Result> awaitElsewhere(final LocalRequestCoalescer.Flight flight) {
+		return executor.submit(new Callable<Result>() {
+
+			@Override
+			public Result call() throws Exception {
+				assertFalse(flight.isLeader());
+				return flight.await();
+			}
+		});
+	}
+
+	private LocalRequestCoalescer coalescer(String parameters) {
+		LocalRequestCoalescer coalescer = LocalRequestCoalescer.create(URL.valueOf("dubbo://127.0.0.1:20880/com.api.TestService?" + parameters), this.metrics());
+		assertNotNull(coalescer);
+		return coalescer;
+	}
+
+	private LocalRoutingMetrics.ServiceMetrics metrics() {
+		return LocalRoutingMetrics.getInstance().service("com.api.TestService");
+	}
+
+	private RpcInvocation invocation(String methodName, String argument) {
+		return new RpcInvocation(methodName, new Class<?>[] {String.class}, new Object[] {argument});
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.api.common.dubbo;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Result;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+import com.alibaba.dubbo.rpc.RpcResult;
+
+/**
+ * @author sxt
+ */
+public class LocalResultCacheTest {
+
+	private final List<LocalRoute> routes = Collections.emptyList();
+
+	@Test
+	public void disabledWithoutConfig() {
+		assertNull(LocalResultCache.create(URL.valueOf("dubbo://127.0.0.1:20880/com.api.TestService"), this.metrics()));
+		LocalResultCache cache = this.cache("get.local.cache=true");
+		RpcInvocation other = this.invocation("other", "a");
+		this.fill(cache, other, new RpcResult("value"));
+		assertNull(cache.get(other, routes));
+	}
+
+	@Test
+	public void keepsFrequentKeysUnderScan() {
+		// 1个分段, 保护区4条
+		LocalResultCache cache = this.cache("get.local.cache=true&get.local.cache.size=5");
+		RpcInvocation hot = this.invocation("get", "hot");
+		RpcResult hotResult = new RpcResult("hot");
+		this.fill(cache, hot, hotResult);
+		// 第二次命中, 升到保护区
+		assertSame(hotResult, cache.get(hot, routes));
+		for(int i = 0; i < 20; i++) {
+			this.fill(cache, this.invocation("get", "scan-" + i), new RpcResult(i));
+		}
+		assertSame(hotResult, cache.get(hot, routes));
+		// 只访问一次的key在试用区里互相淘汰
+		assertNull(cache.get(this.invocation("get", "scan-0"), routes));
+		assertNotNull(cache.get(this.invocation("get", "scan-19"), routes));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedInProbation() {
+		LocalResultCache cache = this.cache("get.local.cache=true&get.local.cache.size=2");
+		this.fill(cache, this.invocation("get", "a"), new RpcResult("a"));
+		this.fill(cache, this.invocation("get", "b"), new RpcResult("b"));
+		this.fill(cache, this.invocation("get", "c"), new RpcResult("c"));
+		assertNull(cache.get(this.invocation("get", "a"), routes));
+		assertNotNull(cache.get(this.invocation("get", "c"), routes));
+	}
+
+	@Test
+	public void expiresAfterTtl() throws Exception {
+		LocalResultCache cache = this.cache("get.local.cache=true&get.local.cache.ttl=50");
+		RpcInvocation invocation = this.invocation("get", "a");
+		this.fill(cache, invocation, new RpcResult("a"));
+		assertNotNull(cache.get(invocation, routes));
+		Thread.sleep(100);
+		assertNull(cache.get(invocation, routes));
+	}
+
+	@Test
+	public void clearsWhenLocalRoutesChange() {
+		LocalResultCache cache = this.cache("get.local.cache=true");
+		RpcInvocation invocation = this.invocation("get", "a");
+		this.fill(cache, invocation, new RpcResult("a"));
+		// 路由表重建但本地路由相同, 不清空
+		assertNotNull(cache.get(invocation, new ArrayList<LocalRoute>()));
+		List<LocalRoute> changed = Collections.singletonList(new LocalRoute(LocalEndpoint.inJvm("com.api.TestService$20880"), null, null));
+		assertNull(cache.get(invocation, changed));
+	}
+
+	@Test
+	public void skipsResultsWhenRoutesChangedDuringCall() {
+		LocalResultCache cache = this.cache("get.local.cache=true");
+		RpcInvocation invocation = this.invocation("get", "a");
+		assertNull(cache.get(invocation, routes));
+		List<LocalRoute> changed = Collections.singletonList(new LocalRoute(LocalEndpoint.inJvm("com.api.TestService$20880"), null, null));
+		cache.get(this.invocation("get", "b"), changed);
+		cache.put(invocation, new RpcResult("a"), routes);
+		assertNull(cache.get(invocation, changed));
+	}
+
+	@Test
+	public void skipsExceptionsAndSwallowedResults() {
+		LocalResultCache cache = this.cache("get.local.cache=true");
+		RpcInvocation failed = this.invocation("get", "failed");
+		this.fill(cache, failed, new RpcResult(new IllegalStateException("biz")));
+		assertNull(cache.get(failed, routes));
+		RpcInvocation swallowed = this.invocation("get", "swallowed");
+		this.fill(cache, swallowed, new LocalCluster.SwallowedResult());
+		assertNull(cache.get(swallowed, routes));
+	}
+
+	@Test
+	public void separatesOverloads() {
+		LocalResultCache cache = this.cache("get.local.cache=true");
+		RpcInvocation byString = new RpcInvocation("get", new Class<?>[] {String.class}, new Object[] {null});
+		RpcInvocation byLong = new RpcInvocation("get", new Class<?>[] {Long.class}, new Object[] {null});
+		RpcResult stringResult = new RpcResult("string");
+		this.fill(cache, byString, stringResult);
+		assertNull(cache.get(byLong, routes));
+		assertSame(stringResult, cache.get(byString, routes));
+	}
+
+	private void fill(LocalResultCache cache, RpcInvocation invocation, Result result) {
+		assertNull(cache.get(invocation, routes));
+		cache.put(invocation, result, routes);
+	}
+
+	private LocalResultCache cache(String parameters) {
+		LocalResultCache cache = LocalResultCache.create(URL.valueOf("dubbo://127.0.0.1:20880/com.api.TestService?" + parameters), this.metrics());
+		assertNotNull(cache);
+		return cache;
+	}
+
+	private LocalRoutingMetrics.ServiceMetrics metrics() {
+		return LocalRoutingMetrics.getInstance().service("com.api.TestService");
+	}
+
+	private RpcInvocation invocation(String methodName, String argument) {
+		return new RpcInvocation(methodName, new Class<?>[] {String.class}, new Object[] {argument});
+	}
+
+}
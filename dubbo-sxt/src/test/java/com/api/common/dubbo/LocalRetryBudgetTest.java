@@ -0,0 +1,65 @@
+package com.api.common.dubbo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.alibaba.dubbo.common.URL;
+
+/**
+ * @author sxt
+ */
+public class LocalRetryBudgetTest {
+
+	@Test
+	public void limitsRetriesToMinimum() {
+		// 没有请求时只有保底令牌: 每秒1个, 窗口10秒
+		LocalRetryBudget budget = this.budget("local.retry.ratio=0&local.retry.min=1");
+		for(int i = 0; i < 10; i++) {
+			assertTrue(budget.tryRetry());
+		}
+		assertFalse(budget.tryRetry());
+		assertEquals(10, budget.getRetried());
+		assertEquals(1, budget.getRejected());
+		assertEquals(0, budget.getRemaining());
+	}
+
+	@Test
+	public void earnsTokensFromRequests() {
+		LocalRetryBudget budget = this.budget("local.retry.ratio=0.5&local.retry.min=0");
+		assertFalse(budget.tryRetry());
+		for(int i = 0; i < 10; i++) {
+			budget.onRequest();
+		}
+		assertEquals(5, budget.getRemaining());
+		for(int i = 0; i < 5; i++) {
+			assertTrue(budget.tryRetry());
+		}
+		assertFalse(budget.tryRetry());
+	}
+
+	@Test
+	public void unlimitedWhenDisabled() {
+		LocalRetryBudget budget = this.budget("local.retry.budget=false&local.retry.min=0");
+		for(int i = 0; i < 1000; i++) {
+			assertTrue(budget.tryRetry());
+		}
+		assertEquals(0, budget.getRejected());
+		assertEquals(Long.MAX_VALUE, budget.getRemaining());
+	}
+
+	@Test
+	public void sharedPerInterface() {
+		URL url = URL.valueOf("dubbo://127.0.0.1:20880/com.api.TestService");
+		LocalRetryBudget budget = LocalRetryBudget.of("com.api.RetryBudgetShared", url);
+		assertSame(budget, LocalRetryBudget.of("com.api.RetryBudgetShared", url.addParameter(LocalRetryBudget.MIN_KEY, 100)));
+	}
+
+	private LocalRetryBudget budget(String parameters) {
+		return new LocalRetryBudget(URL.valueOf("dubbo://127.0.0.1:20880/com.api.TestService?" + parameters));
+	}
+
+}
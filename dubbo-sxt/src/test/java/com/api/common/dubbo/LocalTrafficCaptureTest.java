@@ -0,0 +1,93 @@
+package com.api.common.dubbo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.RpcInvocation;
+
+/**
+ * @author sxt
+ */
+public class LocalTrafficCaptureTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void disabledByDefault() {
+		assertNull(LocalTrafficCapture.open("com.api.TestService", URL.valueOf("dubbo://127.0.0.1:20880/com.api.TestService")));
+	}
+
+	@Test
+	public void flushesAllRecordsOnClose() throws Exception {
+		LocalTrafficCapture first = this.open("com.api.A");
+		LocalTrafficCapture second = this.open("com.api.B");
+		for(int i = 0; i < 100; i++) {
+			first.record(String.class, this.invocation("first-" + i), System.nanoTime());
+			second.record(String.class, this.invocation("second-" + i), System.nanoTime());
+		}
+		// 记录很少, 没有达到flush的大小, 关闭时写完并flush
+		first.close();
+		second.close();
+		assertEquals(100, first.getWritten());
+		assertEquals(100, second.getWritten());
+		assertEquals(100, this.count(first.getFile()));
+		assertEquals(100, this.count(second.getFile()));
+	}
+
+	@Test
+	public void ignoresRecordsAfterClose() throws Exception {
+		LocalTrafficCapture capture = this.open("com.api.C");
+		capture.record(String.class, this.invocation("before"), System.nanoTime());
+		capture.close();
+		capture.record(String.class, this.invocation("after"), System.nanoTime());
+		assertEquals(1, capture.getWritten());
+		assertEquals(1, this.count(capture.getFile()));
+	}
+
+	private LocalTrafficCapture open(String interfaceKey) {
+		URL url = URL.valueOf("dubbo://127.0.0.1:20880/" + interfaceKey + "?local.capture=true") //
+				.addParameter(LocalTrafficCapture.CAPTURE_DIR_KEY, folder.getRoot().getPath());
+		LocalTrafficCapture capture = LocalTrafficCapture.open(interfaceKey, url);
+		assertNotNull(capture);
+		return capture;
+	}
+
+	private RpcInvocation invocation(String argument) {
+		return new RpcInvocation("echo", new Class<?>[] {String.class}, new Object[] {argument});
+	}
+
+	private int count(File file) throws Exception {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			assertEquals(LocalTrafficCapture.MAGIC, in.readInt());
+			assertEquals(LocalTrafficCapture.VERSION, in.readInt());
+			in.readLong();
+			int count = 0;
+			for(;;) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					return count;
+				}
+				in.readFully(new byte[length]);
+				count++;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package com.api.common.dubbo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 两个实例分别映射同一个文件, 和不同进程的provider/consumer一样各自读写
+ *
+ * @author sxt
+ */
+public class MappedRegistryFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MappedRegistryFile writer;
+
+	private MappedRegistryFile reader;
+
+	@Before
+	public void setUp() {
+		writer = new MappedRegistryFile(folder.getRoot().getPath());
+		reader = new MappedRegistryFile(folder.getRoot().getPath());
+	}
+
+	@After
+	public void tearDown() {
+		writer.close();
+		reader.close();
+	}
+
+	@Test
+	public void readsNothingBeforePublish() throws Exception {
+		assertEquals(-1, reader.sequence());
+		MappedRegistryFile.Snapshot snapshot = reader.read();
+		assertEquals(-1, snapshot.getSequence());
+		assertTrue(snapshot.getEntries().isEmpty());
+	}
+
+	@Test
+	public void publishesEntries() throws Exception {
+		writer.publish("app", 100, Arrays.asList("com.api.A$20880", "com.api.B-g1$20880"));
+		long sequence = reader.sequence();
+		assertEquals(0, sequence & 1);
+		assertTrue(sequence > 0);
+		MappedRegistryFile.Snapshot snapshot = reader.read();
+		assertEquals(sequence, snapshot.getSequence());
+		assertEquals(new HashSet<String>(Arrays.asList("com.api.A$20880", "com.api.B-g1$20880")), this.localKeys(snapshot));
+		for(MappedRegistryFile.Entry entry : snapshot.getEntries()) {
+			assertEquals("app@100", entry.getInstance());
+			assertEquals(20880, entry.getPort());
+		}
+	}
+
+	@Test
+	public void replacesOnlyOwnSlots() throws Exception {
+		writer.publish("app", 100, Arrays.asList("com.api.A$20880"));
+		writer.publish("app", 200, Arrays.asList("com.api.A$20881"));
+		writer.publish("other", 100, Arrays.asList("com.api.C$20882"));
+		writer.publish("app", 100, Arrays.asList("com.api.B$20880"));
+		assertEquals(new HashSet<String>(Arrays.asList("com.api.B$20880", "com.api.A$20881", "com.api.C$20882")), this.localKeys(reader.read()));
+		writer.remove("app", 200);
+		assertEquals(new HashSet<String>(Arrays.asList("com.api.B$20880", "com.api.C$20882")), this.localKeys(reader.read()));
+	}
+
+	@Test
+	public void renewsWithoutChangingSequence() throws Exception {
+		writer.publish("app", 100, Arrays.asList("com.api.A$20880"));
+		writer.publish("app", 200, Arrays.asList("com.api.A$20881"));
+		long sequence = reader.sequence();
+		Map<String, Long> before = reader.leases();
+		assertEquals(2, before.size());
+		Thread.sleep(20);
+		writer.renew("app", 100);
+		Map<String, Long> after = reader.leases();
+		assertTrue(after.get("app@100") > before.get("app@100"));
+		assertEquals(before.get("app@200"), after.get("app@200"));
+		assertEquals(sequence, reader.sequence());
+	}
+
+	@Test
+	public void remapsAfterFileRecreated() throws Exception {
+		writer.publish("app", 100, Arrays.asList("com.api.A$20880"));
+		reader.read();
+		int generation = reader.generation();
+		File file = reader.getFile();
+		assertTrue(file.delete());
+		// 重新创建的文件sequence从头开始, 可能和之前相同
+		writer.publish("app", 100, Arrays.asList("com.api.B$20880"));
+		assertEquals(new HashSet<String>(Arrays.asList("com.api.B$20880")), this.localKeys(reader.read()));
+		assertTrue(reader.generation() > generation);
+	}
+
+	@Test
+	public void readsOnlyCompleteSnapshots() throws Exception {
+		// 每一轮的记录端口相同, 读到两轮混在一起说明读到了写了一半的数据
+		final List<List<String>> rounds = new ArrayList<List<String>>();
+		for(int round = 0; round < 2; round++) {
+			List<String> localKeys = new ArrayList<String>();
+			for(int i = 0; i < 50; i++) {
+				localKeys.add("com.api.Service" + i + "$" + (20880 + round));
+			}
+			rounds.add(localKeys);
+		}
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread publisher = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					for(int i = 0; running.get(); i++) {
+						writer.publish("app", 100, rounds.get(i & 1));
+					}
+				} catch (Exception e) {
+					failure.set(e);
+				}
+			}
+		});
+		publisher.start();
+		int complete = 0;
+		try {
+			long deadline = System.currentTimeMillis() + 1000;
+			while(System.currentTimeMillis() < deadline) {
+				MappedRegistryFile.Snapshot snapshot = reader.read();
+				if(snapshot == null || snapshot.getEntries().isEmpty()) {
+					continue ;
+				}
+				Set<Integer> ports = new HashSet<Integer>();
+				for(MappedRegistryFile.Entry entry : snapshot.getEntries()) {
+					ports.add(entry.getPort());
+				}
+				assertEquals(1, ports.size());
+				assertEquals(50, snapshot.getEntries().size());
+				complete++;
+			}
+		} finally {
+			running.set(false);
+			publisher.join();
+		}
+		assertNull(failure.get());
+		assertTrue(complete > 0);
+	}
+
+	@Test
+	public void keepsChannelOpenAcrossWrites() throws Exception {
+		writer.publish("app", 100, Collections.singletonList("com.api.A$20880"));
+		int generation = writer.generation();
+		for(int i = 0; i < 10; i++) {
+			writer.renew("app", 100);
+		}
+		writer.publish("app", 100, Collections.singletonList("com.api.B$20880"));
+		// 没有重新打开文件, 也没有重新映射
+		assertEquals(generation, writer.generation());
+		assertNotNull(reader.read());
+	}
+
+	private Set<String> localKeys(MappedRegistryFile.Snapshot snapshot) {
+		Set<String> localKeys = new HashSet<String>();
+		for(MappedRegistryFile.Entry entry : snapshot.getEntries()) {
+			localKeys.add(entry.getLocalKey());
+		}
+		return localKeys;
+	}
+
+}